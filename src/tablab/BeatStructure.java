@@ -1,6 +1,7 @@
 package tablab;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** The array structure represents all the notes and their respective time in a beat
  * The time of a note are represented with the inverse of the duration of a note (for example 4 is 1/4 of a beat)
@@ -10,6 +11,9 @@ public class BeatStructure implements Iterable<BeatStructure.NoteTime> {
 
     private List<NoteTime> structure = new ArrayList<>();
 
+    // The fraction evolutions already computed, for each notes value
+    private final Map<Integer, List<Fraction>> evolutions = new ConcurrentHashMap<>();
+
     // Basic notes, with time value
     public enum NoteTime {
         WHOLE_NOTE(1),
@@ -57,16 +61,25 @@ public class BeatStructure implements Iterable<BeatStructure.NoteTime> {
      * Get the evolution of the structure from 0 to 1
      * There is one fraction for each NoteTime
      * Each fraction in the result represent the relative time of the associated NoteTime
+     * The evolution is computed once for each notes value, the result can not be modified
      * @return a list of fraction from 0 to 1
      */
     public List<Fraction> getFractionEvolution(PartitionSettings settings) {
+        List<Fraction> fractions = evolutions.get(settings.notesValue);
+        if (fractions == null) {
+            fractions = Collections.unmodifiableList(computeFractionEvolution(settings.notesValue));
+            evolutions.put(settings.notesValue, fractions);
+        }
+        return fractions;
+    }
+
+    private List<Fraction> computeFractionEvolution(int notesValue) {
         List<Fraction> fractions = new ArrayList<>();
-        fractions.add(new Fraction(0,1));
+        fractions.add(Fraction.ZERO);
 
         for (int i = 0; i < structure.size()-1; i++ ) {
-            Fraction fraction = new Fraction(settings.notesValue, structure.get(i).getTime());
-            fraction.add(fractions.get(fractions.size()-1));
-            fractions.add(fraction);
+            Fraction fraction = Fraction.valueOf(notesValue, structure.get(i).getTime());
+            fractions.add(fraction.add(fractions.get(fractions.size()-1)));
         }
         return fractions;
     }
@@ -84,6 +97,29 @@ public class BeatStructure implements Iterable<BeatStructure.NoteTime> {
         return Math.abs(sum - 1.0f) <= eps;
     }
 
+    /**
+     * Get a copy of the structure
+     * @return A copy of the structure
+     */
+    BeatStructure copyBeatStructure() {
+        return new BeatStructure(structure);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BeatStructure && ((BeatStructure) o).structure.equals(structure);
+    }
+
+    @Override
+    public int hashCode() {
+        return structure.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return structure.toString();
+    }
+
     @Override
     public Iterator<NoteTime> iterator() {
         return new BeatStructureIterator();
@@ -116,6 +152,7 @@ public class BeatStructure implements Iterable<BeatStructure.NoteTime> {
 
             try {
                 structure.remove(--index);
+                evolutions.clear();
             }
             catch (IndexOutOfBoundsException e) {
                 throw new ConcurrentModificationException();
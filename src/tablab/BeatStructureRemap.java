@@ -0,0 +1,131 @@
+package tablab;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BeatStructureRemap moves the compressed notes of a beat from a beat structure to another.
+ * A note is kept if a note of the new structure starts at the same time, and is lost otherwise.
+ *
+ * The notes which move of the same number of positions are grouped in a mask,
+ * so the conversion of compressed notes is only a few masks and shifts.
+ * The remaps are computed once for each couple of structures and each notes value, and kept in a cache.
+ */
+final class BeatStructureRemap {
+
+    private static final Map<Key, BeatStructureRemap> cache = new ConcurrentHashMap<>();
+
+    // For each group of notes : the positions in the old structure and the move to the new structure
+    private final long[] masks;
+    private final int[] shifts;
+
+    private BeatStructureRemap(long[] masks, int[] shifts) {
+        this.masks = masks;
+        this.shifts = shifts;
+    }
+
+    /**
+     * Get the remap between two structures
+     * @param oldStructure the structure of the notes to convert
+     * @param newStructure the structure of the converted notes
+     * @param settings the settings, for the notes value
+     * @return the remap
+     */
+    static BeatStructureRemap get(BeatStructure oldStructure, BeatStructure newStructure, PartitionSettings settings) {
+        Key key = new Key(oldStructure, newStructure, settings.notesValue);
+        BeatStructureRemap remap = cache.get(key);
+        if (remap == null) {
+            remap = compute(oldStructure, newStructure, settings);
+            // The structures can be modified : the cache keeps copies
+            cache.put(new Key(oldStructure.copyBeatStructure(), newStructure.copyBeatStructure(), settings.notesValue), remap);
+        }
+        return remap;
+    }
+
+    /**
+     * Convert compressed notes
+     * @param notes the notes in the old structure
+     * @return the notes in the new structure
+     */
+    long apply(long notes) {
+        long newNotes = 0;
+        for (int i = 0; i < masks.length; i++) {
+            newNotes |= Notes.shift(notes & masks[i], shifts[i]);
+        }
+        return newNotes;
+    }
+
+    private static BeatStructureRemap compute(BeatStructure oldStructure, BeatStructure newStructure, PartitionSettings settings) {
+        List<Fraction> oldEvolution = oldStructure.getFractionEvolution(settings);
+        List<Fraction> newEvolution = newStructure.getFractionEvolution(settings);
+
+        long[] masks = new long[Long.SIZE];
+        int[] shifts = new int[Long.SIZE];
+        int groups = 0;
+
+        int oldIndex = 0;
+        int newIndex = 0;
+
+        while (oldIndex < Math.min(oldEvolution.size(), Long.SIZE) && newIndex < Math.min(newEvolution.size(), Long.SIZE)) {
+            int comparison = oldEvolution.get(oldIndex).compareTo(newEvolution.get(newIndex));
+            if (comparison == 0) {
+                int shift = newIndex - oldIndex;
+                int group = 0;
+                while (group < groups && shifts[group] != shift) {
+                    group++;
+                }
+                if (group == groups) {
+                    shifts[groups++] = shift;
+                }
+                masks[group] |= Notes.mask(oldIndex + 1);
+                oldIndex ++;
+                newIndex ++;
+            }
+            else if (comparison > 0) {
+                newIndex ++;
+            }
+            else {
+                oldIndex ++;
+            }
+        }
+
+        long[] groupMasks = new long[groups];
+        int[] groupShifts = new int[groups];
+        System.arraycopy(masks, 0, groupMasks, 0, groups);
+        System.arraycopy(shifts, 0, groupShifts, 0, groups);
+        return new BeatStructureRemap(groupMasks, groupShifts);
+    }
+
+    /**
+     * The key of the cache : the two structures (compared by content) and the notes value
+     */
+    private static final class Key {
+
+        private final BeatStructure oldStructure;
+        private final BeatStructure newStructure;
+        private final int notesValue;
+        private final int hash;
+
+        Key(BeatStructure oldStructure, BeatStructure newStructure, int notesValue) {
+            this.oldStructure = oldStructure;
+            this.newStructure = newStructure;
+            this.notesValue = notesValue;
+            this.hash = (oldStructure.hashCode() * 31 + newStructure.hashCode()) * 31 + notesValue;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return hash == key.hash && notesValue == key.notesValue && oldStructure.equals(key.oldStructure) && newStructure.equals(key.newStructure);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -1,64 +1,262 @@
 package tablab;
 
+import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.math.MathContext;
 
-public class Fraction {
-    private BigInteger numerator;
-    private BigInteger denominator;
+/**
+ * An immutable fraction, always simplified and with a positive denominator.
+ * The numerator and the denominator are stored in longs, the operations check the overflows and use BigInteger only when the result does not fit in longs.
+ */
+public final class Fraction implements Comparable<Fraction> {
 
-    Fraction(long numerator, long denominator) {
-        if(denominator == 0) {
+    public static final Fraction ZERO = new Fraction(0, 1);
+    public static final Fraction ONE = new Fraction(1, 1);
+
+    private final long numerator;
+    private final long denominator;
+
+    // Only used when the fraction does not fit in longs, null otherwise
+    private final BigInteger bigNumerator;
+    private final BigInteger bigDenominator;
+
+    private Fraction(long numerator, long denominator) {
+        this.numerator = numerator;
+        this.denominator = denominator;
+        this.bigNumerator = null;
+        this.bigDenominator = null;
+    }
+
+    private Fraction(BigInteger numerator, BigInteger denominator) {
+        this.numerator = 0;
+        this.denominator = 0;
+        this.bigNumerator = numerator;
+        this.bigDenominator = denominator;
+    }
+
+    /**
+     * Create a simplified fraction
+     * @param numerator the numerator
+     * @param denominator the denominator, not 0
+     * @return the fraction
+     */
+    public static Fraction valueOf(long numerator, long denominator) {
+        if (denominator == 0) {
             throw new IllegalArgumentException("denominator is zero");
         }
-        if(denominator < 0) {
-            numerator *= -1;
-            denominator *= -1;
+        if (numerator == Long.MIN_VALUE || denominator == Long.MIN_VALUE) {
+            return valueOf(BigInteger.valueOf(numerator), BigInteger.valueOf(denominator));
+        }
+        if (denominator < 0) {
+            numerator = -numerator;
+            denominator = -denominator;
         }
-        this.numerator = BigInteger.valueOf(numerator);
-        this.denominator = BigInteger.valueOf(denominator);
-        simplify();
+        long gcd = gcd(numerator, denominator);
+        return new Fraction(numerator / gcd, denominator / gcd);
     }
 
+    /**
+     * Create a simplified fraction
+     * @param numerator the numerator
+     * @param denominator the denominator, not 0
+     * @return the fraction
+     */
+    public static Fraction valueOf(BigInteger numerator, BigInteger denominator) {
+        if (denominator.signum() == 0) {
+            throw new IllegalArgumentException("denominator is zero");
+        }
+        if (denominator.signum() < 0) {
+            numerator = numerator.negate();
+            denominator = denominator.negate();
+        }
+        BigInteger gcd = numerator.gcd(denominator);
+        numerator = numerator.divide(gcd);
+        denominator = denominator.divide(gcd);
+
+        if (numerator.bitLength() < Long.SIZE && denominator.bitLength() < Long.SIZE) {
+            return new Fraction(numerator.longValue(), denominator.longValue());
+        }
+        return new Fraction(numerator, denominator);
+    }
+
+    /**
+     * Get the numerator
+     * @return the numerator
+     * @throws ArithmeticException if the numerator does not fit in a long
+     */
     public long getNumerator() {
-        return numerator.intValue();
+        if (bigNumerator != null) {
+            throw new ArithmeticException("numerator does not fit in a long");
+        }
+        return numerator;
+    }
+
+    /**
+     * Get the denominator
+     * @return the denominator
+     * @throws ArithmeticException if the denominator does not fit in a long
+     */
+    public long getDenominator() {
+        if (bigDenominator != null) {
+            throw new ArithmeticException("denominator does not fit in a long");
+        }
+        return denominator;
+    }
+
+    /**
+     * Get the numerator, with no limit of size
+     * @return the numerator
+     */
+    public BigInteger getBigNumerator() {
+        return bigNumerator != null ? bigNumerator : BigInteger.valueOf(numerator);
     }
 
-    public int getDenominator() {
-        return denominator.intValue();
+    /**
+     * Get the denominator, with no limit of size
+     * @return the denominator
+     */
+    public BigInteger getBigDenominator() {
+        return bigDenominator != null ? bigDenominator : BigInteger.valueOf(denominator);
     }
 
     public double doubleValue() {
-        return numerator.doubleValue() / denominator.doubleValue();
+        if (bigNumerator == null) {
+            return (double) numerator / (double) denominator;
+        }
+        return new BigDecimal(bigNumerator).divide(new BigDecimal(bigDenominator), MathContext.DECIMAL64).doubleValue();
     }
 
+    /**
+     * Check if the fractions are equal
+     * Same as equals
+     * @param fraction the other fraction
+     * @return true if the fractions are equal
+     */
     public boolean equal(Fraction fraction) {
-        long t = numerator.longValue() * fraction.denominator.longValue();
-        long f = fraction.numerator.longValue() * denominator.longValue();
-        return t==f;
+        return equals(fraction);
+    }
+
+    /**
+     * Multiply the fraction
+     * @param fraction the other fraction
+     * @return the product of the fractions
+     */
+    public Fraction multiply(Fraction fraction) {
+        if (isLong() && fraction.isLong() && numerator != Long.MIN_VALUE && fraction.numerator != Long.MIN_VALUE) {
+            try {
+                // Cross simplification, the result is already simplified
+                long gcd1 = gcd(numerator, fraction.denominator);
+                long gcd2 = gcd(fraction.numerator, denominator);
+                return new Fraction(
+                        Math.multiplyExact(numerator / gcd1, fraction.numerator / gcd2),
+                        Math.multiplyExact(denominator / gcd2, fraction.denominator / gcd1));
+            }
+            catch (ArithmeticException e) {
+                // overflow : compute with BigInteger
+            }
+        }
+        return valueOf(getBigNumerator().multiply(fraction.getBigNumerator()), getBigDenominator().multiply(fraction.getBigDenominator()));
     }
 
-    public void multiply(Fraction fraction) {
-        this.numerator = numerator.multiply(fraction.numerator);
-        this.denominator = denominator.multiply(fraction.denominator);
-        simplify();
+    /**
+     * Add a fraction
+     * @param fraction the other fraction
+     * @return the sum of the fractions
+     */
+    public Fraction add(Fraction fraction) {
+        if (isLong() && fraction.isLong()) {
+            try {
+                if (denominator == fraction.denominator) {
+                    return valueOf(Math.addExact(numerator, fraction.numerator), denominator);
+                }
+                long gcd = gcd(denominator, fraction.denominator);
+                long newDenominator = Math.multiplyExact(denominator / gcd, fraction.denominator);
+                long newNumerator = Math.addExact(
+                        Math.multiplyExact(numerator, fraction.denominator / gcd),
+                        Math.multiplyExact(fraction.numerator, denominator / gcd));
+                return valueOf(newNumerator, newDenominator);
+            }
+            catch (ArithmeticException e) {
+                // overflow : compute with BigInteger
+            }
+        }
+        return valueOf(
+                getBigNumerator().multiply(fraction.getBigDenominator()).add(fraction.getBigNumerator().multiply(getBigDenominator())),
+                getBigDenominator().multiply(fraction.getBigDenominator()));
     }
 
-    public void add(Fraction fraction) {
-        this.numerator = denominator.multiply(fraction.numerator).add(numerator.multiply(fraction.denominator));
-        this.denominator = denominator.multiply(fraction.denominator);
-        simplify();
+    /**
+     * Subtract a fraction
+     * @param fraction the other fraction
+     * @return the difference of the fractions
+     */
+    public Fraction subtract(Fraction fraction) {
+        Fraction opposite = fraction.isLong() && fraction.numerator != Long.MIN_VALUE
+                ? new Fraction(-fraction.numerator, fraction.denominator)
+                : valueOf(fraction.getBigNumerator().negate(), fraction.getBigDenominator());
+        return add(opposite);
     }
 
-    private void simplify() {
-        if (numerator.intValue() != 0) {
-            BigInteger gcd = numerator.gcd(denominator);
-            numerator = numerator.divide(gcd);
-            denominator = denominator.divide(gcd);
+    @Override
+    public int compareTo(Fraction fraction) {
+        if (isLong() && fraction.isLong()) {
+            if (denominator == fraction.denominator) {
+                return Long.compare(numerator, fraction.numerator);
+            }
+            try {
+                return Long.compare(Math.multiplyExact(numerator, fraction.denominator), Math.multiplyExact(fraction.numerator, denominator));
+            }
+            catch (ArithmeticException e) {
+                // overflow : compare with BigInteger
+            }
         }
+        return getBigNumerator().multiply(fraction.getBigDenominator()).compareTo(fraction.getBigNumerator().multiply(getBigDenominator()));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Fraction)) {
+            return false;
+        }
+        Fraction fraction = (Fraction) o;
+        if (isLong() && fraction.isLong()) {
+            return numerator == fraction.numerator && denominator == fraction.denominator;
+        }
+        return getBigNumerator().equals(fraction.getBigNumerator()) && getBigDenominator().equals(fraction.getBigDenominator());
+    }
+
+    @Override
+    public int hashCode() {
+        if (isLong()) {
+            return 31 * Long.hashCode(numerator) + Long.hashCode(denominator);
+        }
+        return 31 * bigNumerator.hashCode() + bigDenominator.hashCode();
     }
 
     @Override
     public String toString() {
-        return numerator + "/" + denominator;
+        return isLong() ? numerator + "/" + denominator : bigNumerator + "/" + bigDenominator;
+    }
+
+    private boolean isLong() {
+        return bigNumerator == null;
+    }
+
+    /**
+     * The greatest common divisor of two longs
+     * @param a the first long
+     * @param b the second long, not 0
+     * @return the positive greatest common divisor
+     */
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return Math.abs(a);
     }
-}
\ No newline at end of file
+}
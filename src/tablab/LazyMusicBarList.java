@@ -0,0 +1,138 @@
+package tablab;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+/**
+ * LazyMusicBarList is the list of the bars of a partition read from a binary file, without reading all the bars.
+ * A bar is decoded from the file the first time it is asked, and kept in a cache of bounded size with the last used bars.
+ * The bars no more in the cache are kept with weak references : while a bar is used somewhere, the same instance is returned.
+ * A modified bar (or a bar set in the list) is no more read from the file : it is kept until the end.
+ *
+ * The size of the list can not be modified : the partition copies the bars in a standard list before adding or removing a bar.
+ */
+final class LazyMusicBarList extends AbstractList<MusicBar> {
+
+    private final PartitionBinaryReader reader;
+    private final int cacheSize;
+    private final MusicPartition partition;
+
+    // The last used bars, in the order of use
+    private final LinkedHashMap<Integer, MusicBar> cache;
+
+    // All the bars decoded, while they are used
+    private final WeakReference<MusicBar>[] decoded;
+
+    // The bars modified or set, which can not be read from the file anymore
+    private final Map<Integer, MusicBar> pinned = new HashMap<>();
+
+    /**
+     * Create the list of the bars of a file
+     * @param reader the reader of the file
+     * @param cacheSize the number of bars kept in the cache
+     * @param partition the partition of the bars, notified of their modifications
+     */
+    @SuppressWarnings("unchecked")
+    LazyMusicBarList(PartitionBinaryReader reader, final int cacheSize, MusicPartition partition) {
+        this.reader = reader;
+        this.cacheSize = cacheSize;
+        this.partition = partition;
+        this.cache = new LinkedHashMap<Integer, MusicBar>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, MusicBar> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.decoded = (WeakReference<MusicBar>[]) new WeakReference<?>[reader.getMusicBarNumber()];
+    }
+
+    @Override
+    public synchronized MusicBar get(int index) {
+        MusicBar musicBar = getLoaded(index);
+        if (musicBar == null) {
+            try {
+                musicBar = reader.readMusicBar(index + 1);
+            }
+            catch (IOException e) {
+                throw new IllegalStateException("Can not read the bar " + (index + 1), e);
+            }
+            musicBar.setModificationCallback(new PinCallback(index, musicBar));
+            musicBar.setPartition(partition);
+            decoded[index] = new WeakReference<>(musicBar);
+        }
+        if (cacheSize > 0 && !pinned.containsKey(index)) {
+            cache.put(index, musicBar);
+        }
+        return musicBar;
+    }
+
+    @Override
+    public synchronized MusicBar set(int index, MusicBar musicBar) {
+        MusicBar oldMusicBar = get(index);
+        oldMusicBar.setModificationCallback(null);
+        cache.remove(index);
+        decoded[index] = null;
+        pinned.put(index, musicBar);
+        return oldMusicBar;
+    }
+
+    @Override
+    public int size() {
+        return decoded.length;
+    }
+
+    /**
+     * Stop watching the modifications of the decoded bars, when the partition does not use the list anymore
+     */
+    synchronized void close() {
+        for (int i = 0; i < decoded.length; i++) {
+            MusicBar musicBar = getLoaded(i);
+            if (musicBar != null) {
+                musicBar.setModificationCallback(null);
+            }
+        }
+    }
+
+    /**
+     * Get a bar without decoding it
+     * @param index the index of the bar, from 0
+     * @return the bar, null if the bar is not decoded
+     */
+    private MusicBar getLoaded(int index) {
+        MusicBar musicBar = pinned.get(index);
+        if (musicBar == null) {
+            musicBar = cache.get(index);
+        }
+        if (musicBar == null && decoded[index] != null) {
+            musicBar = decoded[index].get();
+        }
+        return musicBar;
+    }
+
+    private synchronized void pin(int index, MusicBar musicBar) {
+        if (!pinned.containsKey(index) && decoded[index] != null && decoded[index].get() == musicBar) {
+            cache.remove(index);
+            pinned.put(index, musicBar);
+        }
+    }
+
+    /**
+     * Keep a decoded bar in the list when it is modified
+     */
+    private final class PinCallback implements Runnable {
+
+        private final int index;
+        private final MusicBar musicBar;
+
+        PinCallback(int index, MusicBar musicBar) {
+            this.index = index;
+            this.musicBar = musicBar;
+        }
+
+        @Override
+        public void run() {
+            pin(index, musicBar);
+        }
+    }
+}
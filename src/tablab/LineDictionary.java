@@ -0,0 +1,71 @@
+package tablab;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LineDictionary interns the labels of the lines.
+ * Each line label gets a small id (from 0), the same for all the structures, bars and partitions.
+ * The ids are never released.
+ */
+public final class LineDictionary {
+
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] lines = new String[32];
+    private static int size = 0;
+
+    private LineDictionary() {}
+
+    /**
+     * Get the id of a line, register the line if unknown
+     * @param line the line
+     * @return the id of the line
+     */
+    public static int intern(String line) {
+        Integer id = ids.get(line);
+        if (id != null) {
+            return id;
+        }
+        synchronized (LineDictionary.class) {
+            id = ids.get(line);
+            if (id == null) {
+                id = size;
+                if (size == lines.length) {
+                    String[] newLines = new String[size * 2];
+                    System.arraycopy(lines, 0, newLines, 0, size);
+                    lines = newLines;
+                }
+                lines[size++] = line;
+                ids.put(line, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Get the id of a line, without registering it
+     * @param line the line
+     * @return the id of the line, -1 if the line is unknown
+     */
+    public static int getId(String line) {
+        Integer id = ids.get(line);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get the line with the given id
+     * @param id the id
+     * @return the line
+     */
+    public static String getLine(int id) {
+        return lines[id];
+    }
+
+    /**
+     * Get the number of lines registered
+     * @return the number of lines
+     */
+    public static int size() {
+        return ids.size();
+    }
+}
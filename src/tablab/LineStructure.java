@@ -36,21 +36,57 @@ public class LineStructure implements Iterable<String> {
     public static String OPEN_HIT_HAT = "Open Hit-Hat";
 
 
-    private List<String> structure = new ArrayList<>();
+    // The ids of the lines (see LineDictionary), in the order of the structure
+    private int[] lineIds;
+    private int size;
+
+    // The ids of the lines as a bitset
+    private long[] bits;
+
+    // The index of each id in the structure, -1 if the id is not in the structure
+    private int[] indexes;
 
 
     public LineStructure(Collection<? extends String> c) {
-        // Copy the list
-        List<String> c2 = new ArrayList<>(c);
-
-        // Remove duplicate elements in c2 and current list
-        List<String> c3 = distinct(c2);
-        for (String s : c2) {
-            if (structure.contains(s)) {
-                c3.remove(s);
+        int[] ids = new int[c.size()];
+        long[] set = new long[0];
+        int n = 0;
+
+        // Remove duplicate elements
+        for (String s : c) {
+            int id = LineDictionary.intern(s);
+            if (!contains(set, id)) {
+                set = add(set, id);
+                ids[n++] = id;
             }
         }
-        structure.addAll(c3);
+        init(ids, n, set);
+    }
+
+    /**
+     * Create a structure from the ids of the lines
+     * @param lineIds the ids, without duplicate
+     * @param size the number of ids to use
+     * @param bits the ids as a bitset
+     */
+    private LineStructure(int[] lineIds, int size, long[] bits) {
+        init(lineIds, size, bits);
+    }
+
+    private void init(int[] lineIds, int size, long[] bits) {
+        this.lineIds = lineIds;
+        this.size = size;
+        this.bits = bits;
+
+        int maxId = -1;
+        for (int i = 0; i < size; i++) {
+            maxId = Math.max(maxId, lineIds[i]);
+        }
+        indexes = new int[maxId + 1];
+        Arrays.fill(indexes, -1);
+        for (int i = 0; i < size; i++) {
+            indexes[lineIds[i]] = i;
+        }
     }
 
     /**
@@ -59,7 +95,19 @@ public class LineStructure implements Iterable<String> {
      * @return the element at the index
      */
     public String get(int index) {
-        return structure.get(index);
+        return LineDictionary.getLine(getLineId(index));
+    }
+
+    /**
+     * get the id (see LineDictionary) of the element at the given index
+     * @param index the index
+     * @return the id of the element at the index
+     */
+    public int getLineId(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return lineIds[index];
     }
 
     /**
@@ -68,7 +116,49 @@ public class LineStructure implements Iterable<String> {
      * @return true if the structure contains the line
      */
     public boolean contains(String lineType) {
-        return structure.contains(lineType);
+        return containsLineId(LineDictionary.getId(lineType));
+    }
+
+    /**
+     * Check if the structure contains the given line
+     * @param lineId the id of the line (see LineDictionary)
+     * @return true if the structure contains the line
+     */
+    public boolean containsLineId(int lineId) {
+        return contains(bits, lineId);
+    }
+
+    /**
+     * Check if the structure contains all the lines of an other structure
+     * @param otherStructure the other structure
+     * @return true if all the lines of the other structure are in this structure
+     */
+    public boolean containsAll(LineStructure otherStructure) {
+        for (int i = 0; i < otherStructure.bits.length; i++) {
+            long word = i < bits.length ? bits[i] : 0;
+            if ((otherStructure.bits[i] & ~word) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the index of the given line in the structure
+     * @param lineType the line
+     * @return the index of the line, -1 if the structure does not contain the line
+     */
+    public int indexOf(String lineType) {
+        return indexOfLineId(LineDictionary.getId(lineType));
+    }
+
+    /**
+     * Get the index of the given line in the structure
+     * @param lineId the id of the line (see LineDictionary)
+     * @return the index of the line, -1 if the structure does not contain the line
+     */
+    public int indexOfLineId(int lineId) {
+        return lineId < 0 || lineId >= indexes.length ? -1 : indexes[lineId];
     }
 
     /**
@@ -76,63 +166,99 @@ public class LineStructure implements Iterable<String> {
      * @return the number of line
      */
     public int size() {
-        return structure.size();
+        return size;
     }
 
     /**
      * Get the intersection between this structure and an other
+     * The order of the lines is the order of this structure
      *
      * @param otherStructure the other structure to compare
      * @return the intersection of the structure
      */
     public LineStructure getIntersection(LineStructure otherStructure) {
-        List<String> list = new ArrayList<>();
+        long[] resultBits = new long[Math.min(bits.length, otherStructure.bits.length)];
+        for (int i = 0; i < resultBits.length; i++) {
+            resultBits[i] = bits[i] & otherStructure.bits[i];
+        }
 
-        for (String s : this.structure) {
-            if (otherStructure.structure.contains(s)) {
-                list.add(s);
+        int[] resultIds = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (contains(resultBits, lineIds[i])) {
+                resultIds[n++] = lineIds[i];
             }
         }
-        return new LineStructure(list);
+        return new LineStructure(resultIds, n, resultBits);
     }
 
     /**
      * Get the union between this structure and an other
+     * The lines of this structure are first, followed by the new lines of the other structure
      *
      * @param otherStructure the other structure to compare
      * @return the union of the structure
      */
     public LineStructure getUnion(LineStructure otherStructure) {
-        ArrayList<String> resultStructure = new ArrayList<>(this.structure);
+        long[] resultBits = Arrays.copyOf(bits, Math.max(bits.length, otherStructure.bits.length));
+        for (int i = 0; i < otherStructure.bits.length; i++) {
+            resultBits[i] |= otherStructure.bits[i];
+        }
 
-        for (String s : otherStructure.structure) {
-            if (!resultStructure.contains(s)) {
-                resultStructure.add(s);
+        int[] resultIds = Arrays.copyOf(lineIds, size + otherStructure.size);
+        int n = size;
+        for (int i = 0; i < otherStructure.size; i++) {
+            if (!containsLineId(otherStructure.lineIds[i])) {
+                resultIds[n++] = otherStructure.lineIds[i];
             }
         }
-
-        return new LineStructure(resultStructure);
+        return new LineStructure(resultIds, n, resultBits);
     }
 
     @Override
     public String toString() {
-        return structure.toString();
+        StringBuilder str = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                str.append(", ");
+            str.append(get(i));
+        }
+        return String.valueOf(str.append(']'));
     }
 
     /**
-     * Distinct all the elements of a list
-     *
-     * @param structure the list to distinct
-     * @return the distinct list
+     * Check if a bitset contains an id
+     * @param bits the bitset
+     * @param id the id
+     * @return true if the bit of the id is set
      */
-    private static List<String> distinct(List<String> structure) {
-        List<String> resultStructure = new ArrayList<>();
-        for (String s : structure) {
-            if (!resultStructure.contains(s)) {
-                resultStructure.add(s);
-            }
+    private static boolean contains(long[] bits, int id) {
+        return id >= 0 && (id >>> 6) < bits.length && (bits[id >>> 6] & (1L << id)) != 0;
+    }
+
+    /**
+     * Add an id in a bitset
+     * @param bits the bitset
+     * @param id the id
+     * @return the bitset with the id, grown if needed
+     */
+    private static long[] add(long[] bits, int id) {
+        if ((id >>> 6) >= bits.length) {
+            bits = Arrays.copyOf(bits, (id >>> 6) + 1);
         }
-        return resultStructure;
+        bits[id >>> 6] |= 1L << id;
+        return bits;
+    }
+
+    /**
+     * Remove the line at the given index
+     * @param index the index
+     */
+    private void remove(int index) {
+        int id = getLineId(index);
+        bits[id >>> 6] &= ~(1L << id);
+        System.arraycopy(lineIds, index + 1, lineIds, index, size - index - 1);
+        init(lineIds, size - 1, bits);
     }
 
     @Override
@@ -149,7 +275,7 @@ public class LineStructure implements Iterable<String> {
 
         @Override
         public boolean hasNext() {
-            return index < structure.size();
+            return index < size;
         }
 
         @Override
@@ -157,7 +283,7 @@ public class LineStructure implements Iterable<String> {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            return structure.get(index++);
+            return get(index++);
         }
 
         @Override
@@ -167,7 +293,7 @@ public class LineStructure implements Iterable<String> {
             }
 
             try {
-                structure.remove(--index);
+                LineStructure.this.remove(--index);
             }
             catch (IndexOutOfBoundsException e) {
                 throw new ConcurrentModificationException();
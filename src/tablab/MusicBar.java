@@ -1,22 +1,51 @@
 package tablab;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-
 /**
  * MusicBar represent a bar of partition.
  * Contains all the notes of bar, on all the lines
+ *
+ * The notes are stored in a NotesStore : a bar owns a slot of the store, with one compressed notes (a long) for each beat and each line.
+ * By default, a bar has its own store. A MusicPartition can move all its bars in one shared store (columnar storage).
+ * A copy of a bar with its own store shares the slot of the bar (copy on write) : the first bar modified gets a new store.
  */
 public class MusicBar {
 
-    private List<MusicBeat> musicBeats;
     private PartitionSettings settings;
 
+    // Storage of the notes
+    private NotesStore store;
+    private int slot;
+
+    // The alternative structures of each beat, null if the bar has no alternative structure
+    private BeatStructure[] specialBeatStructures = null;
+    private LineStructure[] specialLineStructures = null;
+
+    // Called before each modification of the bar, null if none
+    private Runnable modificationCallback = null;
+
+    // The partition containing the bar, notified of the modifications, null if none
+    private MusicPartition partition = null;
+
+    // Incremented at each modification
+    private int version = 0;
+
     public MusicBar(PartitionSettings settings) {
-        this.musicBeats = new ArrayList<>();
         this.settings = settings;
-        createEmptyBar();
+        this.store = new NotesStore(settings.notesNumber, 1, true);
+        this.slot = store.allocateSlot();
+    }
+
+    /**
+     * Create a bar sharing the notes of another bar
+     * @param musicBar the bar to share
+     */
+    private MusicBar(MusicBar musicBar) {
+        this.settings = musicBar.settings;
+        this.store = musicBar.store;
+        this.slot = musicBar.slot;
+        store.retainSlot(slot);
+        this.specialBeatStructures = musicBar.specialBeatStructures == null ? null : musicBar.specialBeatStructures.clone();
+        this.specialLineStructures = musicBar.specialLineStructures == null ? null : musicBar.specialLineStructures.clone();
     }
 
     /**
@@ -26,9 +55,13 @@ public class MusicBar {
      * @param lineType the line
      */
     public void addNote(String lineType, int beatNumber, int noteNumber) {
-        Notes notes = getNotesAt(lineType, beatNumber);
-        if (notes != null) {
-            notes.addNote(noteNumber);
+        int lineId = LineDictionary.getId(lineType);
+        if (isLine(lineId, beatNumber)) {
+            long notes = Notes.addNote(getCompressedNotes(lineId, beatNumber), noteNumber);
+            if (notes != getCompressedNotes(lineId, beatNumber)) {
+                modified(beatNumber);
+                store.set(slot, beatNumber-1, store.addColumn(lineId), notes);
+            }
         }
     }
 
@@ -39,9 +72,14 @@ public class MusicBar {
      * @param lineType the line
      */
     public void removeNote(String lineType, int beatNumber, int noteNumber) {
-        Notes notes = getNotesAt(lineType, beatNumber);
-        if (notes != null) {
-            notes.removeNote(noteNumber);
+        int lineId = LineDictionary.getId(lineType);
+        if (isBeat(beatNumber) && store.getColumn(lineId) >= 0) {
+            long notes = Notes.removeNote(getCompressedNotes(lineId, beatNumber), noteNumber);
+            if (notes != getCompressedNotes(lineId, beatNumber)) {
+                // The bar has a note on the line : the column is kept by a move to another store
+                modified(beatNumber);
+                store.set(slot, beatNumber-1, store.getColumn(lineId), notes);
+            }
         }
     }
 
@@ -53,8 +91,39 @@ public class MusicBar {
      * @return If there is a note at the given position
      */
     public boolean isNote(String lineType, int beatNumber, int noteNumber) {
-        Notes notes = getNotesAt(lineType, beatNumber);
-        return notes != null && notes.isNote(noteNumber);
+        return Notes.isNote(getCompressedNotes(lineType, beatNumber), noteNumber);
+    }
+
+    /**
+     * Get all the notes at a specific emplacement in the bar
+     * @param lineType the line
+     * @param beatNumber the beat number
+     * @return a copy of the notes of the beat on the line, empty if the line or the beat is not in the bar
+     */
+    public Notes getNotes(String lineType, int beatNumber) {
+        return new Notes(getCompressedNotes(lineType, beatNumber));
+    }
+
+    /**
+     * Get all the notes of a line in the bar
+     * The notes of the beats follow each other : the first note of the second beat is just after the last note of the first beat (see getBeatStructure)
+     * @param lineType the line
+     * @return a copy of the notes of the line
+     */
+    public WideNotes getLineNotes(String lineType) {
+        int size = 0;
+        for (int beat = 1; beat <= settings.notesNumber; beat++) {
+            size += getBeatStructure(beat).size();
+        }
+
+        WideNotes notes = new WideNotes(size);
+        int noteNumber = 1;
+        for (int beat = 1; beat <= settings.notesNumber; beat++) {
+            int length = getBeatStructure(beat).size();
+            notes.setNotes(noteNumber, Math.min(length, Long.SIZE), getCompressedNotes(lineType, beat));
+            noteNumber += length;
+        }
+        return notes;
     }
 
     /** Get the compressed notes data from at a specific emplacement in the bar
@@ -64,8 +133,8 @@ public class MusicBar {
      * @return the notes data
      */
     long getCompressedNotes(String lineType, int beatNumber) {
-        Notes notes = getNotesAt(lineType, beatNumber);
-        return notes == null ? 0 : notes.getNotes();
+        int column = store.getColumn(LineDictionary.getId(lineType));
+        return !isBeat(beatNumber) || column < 0 ? 0 : store.get(slot, beatNumber-1, column);
     }
 
     /** Set compressed notes data at a specific emplacement in the bar
@@ -75,19 +144,21 @@ public class MusicBar {
      * @param notes the compressed notes to set
      */
     void setCompressedNotes(String lineType, int beatNumber, long notes) {
-        MusicBeat musicBeat = getBeatAt(beatNumber);
-        if (musicBeat != null)
-            musicBeat.put(lineType, new Notes(notes));
+        int lineId = LineDictionary.getId(lineType);
+        if (isLine(lineId, beatNumber) && notes != getCompressedNotes(lineId, beatNumber)) {
+            modified(beatNumber);
+            store.set(slot, beatNumber-1, store.addColumn(lineId), notes);
+        }
     }
 
+
     /**
      * Check if the music bar has an alternative beat structure for a specific beat number
      * @param beatNumber the beat number
      * @return true if alternative beat structure
      */
     public boolean hasSpecialBeatStructure(int beatNumber) {
-        MusicBeat musicBeat = getBeatAt(beatNumber);
-        return musicBeat != null && musicBeat.hasSpecialBeatStructure();
+        return getSpecialBeatStructure(beatNumber) != null;
     }
 
     /**
@@ -98,20 +169,27 @@ public class MusicBar {
      * @param beatNumber the beat number
      */
     public void setSpecialBeatStructure(BeatStructure structure, int beatNumber) {
-        MusicBeat musicBeat = getBeatAt(beatNumber);
-        if (musicBeat != null) {
-            BeatStructure oldBeatStructure = musicBeat.hasSpecialBeatStructure() ? musicBeat.specialBeatStructure : settings.beatStructure;
-            musicBeat.specialBeatStructure = structure;
+        if (isBeat(beatNumber) && structure != getSpecialBeatStructure(beatNumber)) {
+            modified(beatNumber);
+            BeatStructure oldBeatStructure = getBeatStructure(beatNumber);
+            BeatStructure newBeatStructure = structure == null ? settings.beatStructure : structure;
 
-            // Update the notes, to match with the new structure
-            if (structure != null && structure != oldBeatStructure) {
-                for (String lineType : musicBeat.keySet()) {
-                    musicBeat.put(lineType, changeNotesBeatStructure(musicBeat.get(lineType), oldBeatStructure, structure));
-                }
+            if (specialBeatStructures == null && structure != null) {
+                specialBeatStructures = new BeatStructure[settings.notesNumber];
+            }
+            if (specialBeatStructures != null) {
+                specialBeatStructures[beatNumber-1] = structure;
             }
-            else if (structure == null) {
-                for (String lineType : musicBeat.keySet()) {
-                    musicBeat.put(lineType, changeNotesBeatStructure(musicBeat.get(lineType), oldBeatStructure, settings.beatStructure));
+
+            // Update the notes, to match with the new structure
+            if (newBeatStructure != oldBeatStructure) {
+                BeatStructureRemap remap = BeatStructureRemap.get(oldBeatStructure, newBeatStructure, settings);
+                LineStructure lineStructure = getLineStructure(beatNumber);
+                for (int i = 0; i < lineStructure.size(); i++) {
+                    int column = store.getColumn(lineStructure.getLineId(i));
+                    if (column >= 0) {
+                        store.set(slot, beatNumber-1, column, remap.apply(store.get(slot, beatNumber-1, column)));
+                    }
                 }
             }
         }
@@ -123,8 +201,7 @@ public class MusicBar {
      * @return the alternative structure
      */
     public BeatStructure getSpecialBeatStructure(int beatNumber) {
-        MusicBeat musicBeat = getBeatAt(beatNumber);
-        return musicBeat == null ? null : musicBeat.specialBeatStructure;
+        return !isBeat(beatNumber) || specialBeatStructures == null ? null : specialBeatStructures[beatNumber-1];
     }
 
     /**
@@ -146,24 +223,38 @@ public class MusicBar {
      * @return true if alternative line structure
      */
     public boolean hasSpecialLineStructure(int beatNumber) {
-        MusicBeat musicBeat = getBeatAt(beatNumber);
-        return musicBeat != null && musicBeat.hasSpecialLineStructure();
+        return getSpecialLineStructure(beatNumber) != null;
     }
 
     /**
      * Add a alternative line structure in bar for a specific beat number
      * Override the previous structure if there is already a alternative structure
      * Use 'null' as parameter to remove the special structure
+     * The notes of the lines present in the old and the new structure are kept
      * @param structure the alternative line structure to use on the beat, set null the remove the current alternative structure
      * @param beatNumber the beat number
      */
     public void setSpecialLineStructure(LineStructure structure, int beatNumber) {
-        MusicBeat musicBeat = getBeatAt(beatNumber);
-        if (musicBeat != null) {
-            LineStructure oldBeatStructure = musicBeat.hasSpecialLineStructure() ? musicBeat.specialLineStructure : settings.lineStructure;
-            MusicBeat newMusicBeat = changeNotesLineStructure(musicBeat, oldBeatStructure, structure);
-            newMusicBeat.specialLineStructure = structure;
-            musicBeats.set(beatNumber-1, newMusicBeat);
+        if (isBeat(beatNumber) && structure != getSpecialLineStructure(beatNumber)) {
+            modified(beatNumber);
+            LineStructure oldLineStructure = getLineStructure(beatNumber);
+            LineStructure newLineStructure = structure == null ? settings.lineStructure : structure;
+
+            // Remove the notes of the lines which are not in the new structure
+            for (int i = 0; i < oldLineStructure.size(); i++) {
+                int lineId = oldLineStructure.getLineId(i);
+                int column = store.getColumn(lineId);
+                if (column >= 0 && !newLineStructure.containsLineId(lineId)) {
+                    store.set(slot, beatNumber-1, column, 0);
+                }
+            }
+
+            if (specialLineStructures == null && structure != null) {
+                specialLineStructures = new LineStructure[settings.notesNumber];
+            }
+            if (specialLineStructures != null) {
+                specialLineStructures[beatNumber-1] = structure;
+            }
         }
     }
 
@@ -173,8 +264,7 @@ public class MusicBar {
      * @return the alternative structure
      */
     public LineStructure getSpecialLineStructure(int beatNumber) {
-        MusicBeat musicBeat = getBeatAt(beatNumber);
-        return musicBeat == null ? null : musicBeat.specialLineStructure;
+        return !isBeat(beatNumber) || specialLineStructures == null ? null : specialLineStructures[beatNumber-1];
     }
 
     /**
@@ -192,21 +282,24 @@ public class MusicBar {
 
     /**
      * Get a copy of the music bar
+     * The copy shares the notes with the bar until one of them is modified, except for a bar in the store of a partition.
      * @return A copy of the music bar
      */
     public MusicBar copyMusicBar() {
+        if (store.isShareable()) {
+            return new MusicBar(this);
+        }
         MusicBar newMusicBar = new MusicBar(settings);
-
-        for (MusicBeat musicBeat : musicBeats) {
-            MusicBeat newMusicBeat = new MusicBeat();
-            newMusicBeat.specialBeatStructure = musicBeat.specialBeatStructure;
-
-            for (String lineType : musicBeat.keySet()) {
-                Notes notes = musicBeat.get(lineType).copyNotes();
-                newMusicBeat.put(lineType, notes);
+        newMusicBar.specialBeatStructures = specialBeatStructures == null ? null : specialBeatStructures.clone();
+        newMusicBar.specialLineStructures = specialLineStructures == null ? null : specialLineStructures.clone();
+
+        for (int beat = 1; beat <= settings.notesNumber; beat++) {
+            for (String lineType : getLineStructure(beat)) {
+                long notes = getCompressedNotes(lineType, beat);
+                if (notes != 0) {
+                    newMusicBar.setCompressedNotes(lineType, beat, notes);
+                }
             }
-
-            newMusicBar.musicBeats.add(newMusicBeat);
         }
         return newMusicBar;
     }
@@ -219,13 +312,16 @@ public class MusicBar {
      * @param beatNumberToPaste The beat position to paste
      */
     public void copyBeat(int beatNumberToCopy, int beatNumberToPaste) {
-        MusicBeat musicBeat1 = getBeatAt(beatNumberToCopy);
-        MusicBeat musicBeat2 = getBeatAt(beatNumberToPaste);
-
-        if (musicBeat1 != null && musicBeat2 != null) {
-            for (String lineType : getLineStructure(beatNumberToPaste)) {
-                if (getLineStructure(beatNumberToCopy).contains(lineType) && musicBeat2.containsKey(lineType) && musicBeat1.containsKey(lineType)) {
-                    musicBeat2.put(lineType, changeNotesBeatStructure(musicBeat1.get(lineType), getBeatStructure(beatNumberToCopy), getBeatStructure(beatNumberToPaste)));
+        if (isBeat(beatNumberToCopy) && isBeat(beatNumberToPaste)) {
+            modified(beatNumberToPaste);
+            BeatStructureRemap remap = BeatStructureRemap.get(getBeatStructure(beatNumberToCopy), getBeatStructure(beatNumberToPaste), settings);
+            LineStructure lineStructureToCopy = getLineStructure(beatNumberToCopy);
+            LineStructure lineStructureToPaste = getLineStructure(beatNumberToPaste);
+            for (int i = 0; i < lineStructureToPaste.size(); i++) {
+                int lineId = lineStructureToPaste.getLineId(i);
+                int column = store.getColumn(lineId);
+                if (lineStructureToCopy.containsLineId(lineId) && column >= 0) {
+                    store.set(slot, beatNumberToPaste-1, column, remap.apply(store.get(slot, beatNumberToCopy-1, column)));
                 }
             }
         }
@@ -239,136 +335,233 @@ public class MusicBar {
      * @param beatNumberToPaste The beat position to paste
      */
     public void copyBeat(String lineType, int beatNumberToCopy, int beatNumberToPaste) {
-        MusicBeat musicBeat1 = getBeatAt(beatNumberToCopy);
-        MusicBeat musicBeat2 = getBeatAt(beatNumberToPaste);
-
-        if (musicBeat1 != null && musicBeat2 != null && musicBeat2.containsKey(lineType)) {
-            musicBeat2.put(lineType, changeNotesBeatStructure(musicBeat1.get(lineType), getBeatStructure(beatNumberToCopy), getBeatStructure(beatNumberToPaste)));
+        if (isBeat(beatNumberToCopy) && isLine(lineType, beatNumberToPaste)) {
+            BeatStructureRemap remap = BeatStructureRemap.get(getBeatStructure(beatNumberToCopy), getBeatStructure(beatNumberToPaste), settings);
+            setCompressedNotes(lineType, beatNumberToPaste, remap.apply(getCompressedNotes(lineType, beatNumberToCopy)));
         }
     }
 
-    /** Create a empty MusicBar, with the data in the setting object
+    /**
+     * Move the notes of the bar in another store
+     * The slot of the bar in the current store is released
+     * Do nothing if the store does not have the same number of beats than the bar
+     * @param newStore the store to use
      */
-    private void createEmptyBar() {
-        for (int i = 0; i < settings.notesNumber; i++) {
-            MusicBeat musicBeat = new MusicBeat();
-            for (String lineType : settings.lineStructure) {
-                musicBeat.put(lineType, new Notes());
+    void moveToStore(NotesStore newStore) {
+        if (newStore == store || newStore.getNotesNumber() != settings.notesNumber) {
+            return;
+        }
+        int newSlot = newStore.allocateSlot();
+        for (int beat = 1; beat <= settings.notesNumber; beat++) {
+            LineStructure lineStructure = getLineStructure(beat);
+            for (int i = 0; i < lineStructure.size(); i++) {
+                int lineId = lineStructure.getLineId(i);
+                int column = store.getColumn(lineId);
+                long notes = column < 0 ? 0 : store.get(slot, beat-1, column);
+                if (notes != 0) {
+                    newStore.set(newSlot, beat-1, newStore.addColumn(lineId), notes);
+                }
             }
-            musicBeats.add(musicBeat);
         }
+        store.releaseSlot(slot);
+        store = newStore;
+        slot = newSlot;
     }
 
     /**
-     * Get the music beat at a precise beat position
-     * @param beatNumber the beat position
-     * @return the MusicBeat, null if beatNumber greater than the number of notes
+     * Share the notes of another bar with the same content (deduplication), until one of them is modified
+     * Do nothing if one of the bars is in the store of a partition
+     * @param musicBar the bar to share, with the same content (see contentEquals)
      */
-    private MusicBeat getBeatAt(int beatNumber) {
-        return beatNumber > settings.notesNumber ? null : musicBeats.get(beatNumber -1);
+    void shareNotes(MusicBar musicBar) {
+        if ((musicBar.store == store && musicBar.slot == slot) || !store.isShareable() || !musicBar.store.isShareable()) {
+            return;
+        }
+        musicBar.store.retainSlot(musicBar.slot);
+        store.releaseSlot(slot);
+        store = musicBar.store;
+        slot = musicBar.slot;
     }
 
     /**
-     * Get the notes at a precise beat position and line
-     * @param lineType the line
-     * @param beatNumber the beat position
-     * @return the Notes, null if unknown lineType or if beatNumber greater than the number of notes
+     * Check if the bar shares its notes with the bar given
+     * @param musicBar the other bar
+     * @return true if the bars use the same notes
      */
-    private Notes getNotesAt(String lineType, int beatNumber) {
-        MusicBeat musicBeat = getBeatAt(beatNumber);
-        if (musicBeat == null) {
-            return null;
-        }
-        return musicBeat.get(lineType);
+    boolean sharesNotes(MusicBar musicBar) {
+        return musicBar.store == store && musicBar.slot == slot;
     }
 
     /**
-     * Change the notes to match with the new beat structure
-     * @param oldNotes the notes to update
-     * @param oldStructure the old structure
-     * @param newStructure the new structure
-     * @return the new notes
+     * Check if the notes of the bar are shared with other bars
+     * @return true if the notes are shared
      */
-    private Notes changeNotesBeatStructure(Notes oldNotes, BeatStructure oldStructure, BeatStructure newStructure) {
-
-        List<Fraction> oldEvolution = oldStructure.getFractionEvolution(settings);
-        List<Fraction> newEvolution = newStructure.getFractionEvolution(settings);
-        Notes newNotes = new Notes();
+    boolean isSharingNotes() {
+        return store.isShared(slot);
+    }
 
-        int oldIndex = 0;
-        int newIndex = 0;
+    /**
+     * Get a hash code of the content of the bar : the notes and the alternative structures
+     * @return the hash code, equal for two bars with the same content
+     */
+    int contentHashCode() {
+        int hash = 1;
+        for (int beat = 1; beat <= settings.notesNumber; beat++) {
+            BeatStructure beatStructure = getSpecialBeatStructure(beat);
+            hash = 31 * hash + (beatStructure == null ? 0 : beatStructure.hashCode());
+            hash = 31 * hash + (hasSpecialLineStructure(beat) ? 1 : 0);
+            LineStructure lineStructure = getLineStructure(beat);
+            for (int i = 0; i < lineStructure.size(); i++) {
+                int lineId = lineStructure.getLineId(i);
+                hash = 31 * (31 * hash + lineId) + Long.hashCode(getCompressedNotes(lineId, beat));
+            }
+        }
+        return hash;
+    }
 
-        while (oldIndex < oldEvolution.size() && newIndex < newEvolution.size()) {
-            if (oldEvolution.get(oldIndex).equal(newEvolution.get(newIndex))) {
-                if (oldNotes.isNote(oldIndex + 1)) {
-                    newNotes.addNote(newIndex +1);
-                }
-                oldIndex ++;
-                newIndex ++;
+    /**
+     * Check if two bars have the same content : the same notes and the same alternative structures
+     * @param musicBar the other bar
+     * @return true if the bars have the same content
+     */
+    boolean contentEquals(MusicBar musicBar) {
+        if (musicBar == this) {
+            return true;
+        }
+        if (musicBar.settings.notesNumber != settings.notesNumber) {
+            return false;
+        }
+        boolean sameNotes = musicBar.store == store && musicBar.slot == slot;
+        for (int beat = 1; beat <= settings.notesNumber; beat++) {
+            BeatStructure beatStructure = getSpecialBeatStructure(beat);
+            if (beatStructure == null ? musicBar.hasSpecialBeatStructure(beat) : !beatStructure.equals(musicBar.getSpecialBeatStructure(beat))) {
+                return false;
             }
-            else if (oldEvolution.get(oldIndex).doubleValue() > newEvolution.get(newIndex).doubleValue()) {
-                newIndex ++;
+            if (hasSpecialLineStructure(beat) != musicBar.hasSpecialLineStructure(beat)) {
+                return false;
             }
-            else {
-                oldIndex ++;
+            LineStructure lineStructure = getLineStructure(beat);
+            LineStructure otherLineStructure = musicBar.getLineStructure(beat);
+            if (lineStructure.size() != otherLineStructure.size()) {
+                return false;
+            }
+            for (int i = 0; i < lineStructure.size(); i++) {
+                int lineId = lineStructure.getLineId(i);
+                if (lineId != otherLineStructure.getLineId(i)) {
+                    return false;
+                }
+                if (!sameNotes && getCompressedNotes(lineId, beat) != musicBar.getCompressedNotes(lineId, beat)) {
+                    return false;
+                }
             }
         }
+        return true;
+    }
 
-        return newNotes;
+    /**
+     * Replace the notes and the structures of the bar by the ones of another bar, shared until one of them is modified
+     * The partition of the bar is not notified : use it on a bar not in a partition
+     * @param musicBar the bar to copy
+     */
+    void copyFrom(MusicBar musicBar) {
+        if (musicBar == this || musicBar.settings.notesNumber != settings.notesNumber) {
+            return;
+        }
+        MusicBar copy = musicBar.copyMusicBar();
+        store.releaseSlot(slot);
+        store = copy.store;
+        slot = copy.slot;
+        specialBeatStructures = copy.specialBeatStructures;
+        specialLineStructures = copy.specialLineStructures;
+        version++;
     }
 
     /**
-     * Change the music beat to match with the new line structure
-     * @param musicBeat the music beat to update
-     * @param oldStructure the old structure
-     * @param newStructure the new structure
-     * @return the new music beat
+     * Set the callback called before each modification of the notes or the structures of the bar
+     * @param modificationCallback the callback, null to remove the current callback
      */
-    private MusicBeat changeNotesLineStructure(MusicBeat musicBeat, LineStructure oldStructure, LineStructure newStructure) {
+    void setModificationCallback(Runnable modificationCallback) {
+        this.modificationCallback = modificationCallback;
+    }
 
-        int oldIndex = 0;
-        int newIndex = 0;
-        MusicBeat newMusicBeat = new MusicBeat();
+    /**
+     * Get the partition containing the bar
+     * @return the partition, null if the bar is not in a partition
+     */
+    MusicPartition getPartition() {
+        return partition;
+    }
 
-        while (oldIndex < oldStructure.size() && newIndex < newStructure.size()) {
+    /**
+     * Set the partition containing the bar, notified of the modifications
+     * @param partition the partition, null if the bar is removed from its partition
+     */
+    void setPartition(MusicPartition partition) {
+        this.partition = partition;
+    }
 
-            if (oldStructure.get(oldIndex).equals(newStructure.get(newIndex))) {
-                newMusicBeat.put(oldStructure.get(oldIndex), musicBeat.get(oldStructure.get(oldIndex)));
-                oldIndex++;
-                newIndex++;
-            }
-            else if (!oldStructure.get(oldIndex).equals(newStructure.get(newIndex)) && !oldStructure.contains(newStructure.get(newIndex))) {
-                newMusicBeat.put(newStructure.get(newIndex), new Notes());
-                newIndex++;
-            }
-            else {
-                oldIndex++;
-            }
+    /**
+     * Get the version of the bar, incremented at each modification of the notes or the structures
+     * @return the version
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Notify the callback and the partition before a modification, and stop sharing the notes with the copies of the bar
+     * @param beatNumber the modified beat
+     */
+    private void modified(int beatNumber) {
+        version++;
+        if (modificationCallback != null) {
+            modificationCallback.run();
         }
-        if (newIndex < newStructure.size()) {
-            for (int i = newIndex; i < newStructure.size(); i++) {
-                newMusicBeat.put(newStructure.get(i), new Notes());
-            }
+        if (partition != null && isBeat(beatNumber)) {
+            partition.musicBarModified(this, beatNumber);
+        }
+        if (store.isShared(slot)) {
+            moveToStore(new NotesStore(settings.notesNumber, 1, true));
         }
-
-        return newMusicBeat;
     }
 
     /**
-     * The MusicBeat contains all the information of a music bar on the duration of a beat
-     * Contains Notes and alternative structures
+     * Get the compressed notes of a line in a beat
+     * @param lineId the id of the line
+     * @param beatNumber the beat number, between 1 and the number of notes
+     * @return the notes data
      */
-    private class MusicBeat extends HashMap<String, Notes> {
+    private long getCompressedNotes(int lineId, int beatNumber) {
+        int column = store.getColumn(lineId);
+        return column < 0 ? 0 : store.get(slot, beatNumber-1, column);
+    }
 
-        LineStructure specialLineStructure = null;
-        BeatStructure specialBeatStructure = null;
+    /**
+     * Check if the beat number is a beat of the bar
+     * @param beatNumber the beat position
+     * @return true if the beat is between 1 and the number of notes
+     */
+    private boolean isBeat(int beatNumber) {
+        return beatNumber >= 1 && beatNumber <= settings.notesNumber;
+    }
 
-        boolean hasSpecialBeatStructure() {
-            return specialBeatStructure != null;
-        }
+    /**
+     * Check if the line is in the structure of a beat
+     * @param lineType the line
+     * @param beatNumber the beat position
+     * @return true if the beat exists and if its line structure contains the line
+     */
+    private boolean isLine(String lineType, int beatNumber) {
+        return isLine(LineDictionary.getId(lineType), beatNumber);
+    }
 
-        boolean hasSpecialLineStructure() {
-            return specialLineStructure != null;
-        }
+    /**
+     * Check if the line is in the structure of a beat
+     * @param lineId the id of the line
+     * @param beatNumber the beat position
+     * @return true if the beat exists and if its line structure contains the line
+     */
+    private boolean isLine(int lineId, int beatNumber) {
+        return isBeat(beatNumber) && getLineStructure(beatNumber).containsLineId(lineId);
     }
 }
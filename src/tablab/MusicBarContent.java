@@ -0,0 +1,36 @@
+package tablab;
+
+/**
+ * MusicBarContent is the content of a bar (notes and alternative structures), used as a key to find the bars with the same content.
+ * The bar must not be modified while the key is used.
+ */
+final class MusicBarContent {
+
+    private final MusicBar musicBar;
+    private final int hash;
+
+    MusicBarContent(MusicBar musicBar) {
+        this.musicBar = musicBar;
+        this.hash = musicBar.contentHashCode();
+    }
+
+    /**
+     * Get the bar of the key
+     * @return the bar
+     */
+    MusicBar getMusicBar() {
+        return musicBar;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MusicBarContent
+                && ((MusicBarContent) o).hash == hash
+                && ((MusicBarContent) o).musicBar.contentEquals(musicBar);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,18 @@
+package tablab;
+
+/** MusicBarListener is called by PartitionFileManager while a partition is read, each time a music bar is ready.
+ * The listener can use the bar (and the bars already read) before the end of the reading.
+ */
+public interface MusicBarListener {
+
+    /**
+     * Method called when a music bar is read and added in the partition.
+     * The bars are usually read in order, so the bar is the last bar of the partition.
+     * If the bars of the file are not in order, the bar is inserted at its position and the next bars of the partition are moved.
+     *
+     * @param partition the partition being read, with the settings and the bars already read
+     * @param musicBar the music bar read
+     * @param index the position of the bar in the partition
+     */
+    void onMusicBar(MusicPartition partition, MusicBar musicBar, int index);
+}
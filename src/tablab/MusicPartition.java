@@ -1,6 +1,7 @@
 package tablab;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class MusicPartition implements Iterable<MusicBar> {
 
@@ -9,6 +10,24 @@ public class MusicPartition implements Iterable<MusicBar> {
     private PartitionSettings settings;
     private List<MusicBar> musicBars;
 
+    // The store shared by all the bars, null if each bar uses its own store
+    private NotesStore store = null;
+
+    // The bars read on demand from a file, null if all the bars are in memory
+    private LazyMusicBarList lazyMusicBars = null;
+
+    // The canonical bars by content, shared by the bars with the same content, null if the deduplication is disabled
+    private Map<MusicBarContent, CanonicalMusicBar> canonicalMusicBars = null;
+
+    // The rendered bars of the ascii tab, null if the rendering is not cached
+    private TabRenderCache renderCache = null;
+
+    // Incremented at each modification of the partition or of its bars
+    private volatile int version = 0;
+
+    // Notified of the modifications of the partition
+    private final List<PartitionEditListener> editListeners = new CopyOnWriteArrayList<>();
+
     public MusicPartition(String title, String author, PartitionSettings settings) {
         this.title = title;
         this.author = author;
@@ -16,6 +35,27 @@ public class MusicPartition implements Iterable<MusicBar> {
         this.musicBars = new ArrayList<>();
     }
 
+    /**
+     * Create a partition
+     * @param columnarStorage true to store the notes of all the bars in a single store
+     * @see #setColumnarStorage(boolean)
+     */
+    public MusicPartition(String title, String author, PartitionSettings settings, boolean columnarStorage) {
+        this(title, author, settings);
+        setColumnarStorage(columnarStorage);
+    }
+
+    /**
+     * Create a partition reading its bars on demand
+     * @param reader the reader of the file
+     * @param cacheSize the number of decoded bars kept in memory
+     */
+    MusicPartition(PartitionBinaryReader reader, int cacheSize) {
+        this(reader.getTitle(), reader.getAuthor(), reader.getSettings());
+        this.lazyMusicBars = new LazyMusicBarList(reader, cacheSize, this);
+        this.musicBars = lazyMusicBars;
+    }
+
     /**
      * Get the title of the partition
      * @return the title
@@ -40,6 +80,166 @@ public class MusicPartition implements Iterable<MusicBar> {
         return settings;
     }
 
+    /**
+     * Get the version of the partition, incremented at each modification of the partition or of one of its bars
+     * (notes, structures, bars added or removed). The settings are not watched.
+     * @return the version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Check if the notes of all the bars are stored in a single store
+     * @return true if columnar storage is used
+     */
+    public boolean isColumnarStorage() {
+        return store != null;
+    }
+
+    /**
+     * Check if the bars are read on demand from a file
+     * Adding or removing a bar, or enabling the columnar storage, reads all the bars
+     * @return true if the bars are read on demand
+     */
+    public boolean isLazyLoading() {
+        return lazyMusicBars != null;
+    }
+
+    /**
+     * Enable or disable the columnar storage.
+     * With the columnar storage, the notes of all the bars of the partition are stored in a single array, indexed by bar, beat and line.
+     * The bars added in the partition are moved in this array, and the bars removed from the partition get back their own store.
+     * @param columnarStorage true to enable the columnar storage
+     */
+    public void setColumnarStorage(boolean columnarStorage) {
+        if (columnarStorage && canonicalMusicBars != null) {
+            throw new IllegalStateException("The columnar storage can not be used with the deduplication of the bars");
+        }
+        if (columnarStorage && store == null) {
+            loadAllMusicBars();
+            store = new NotesStore(settings.notesNumber, musicBars.size(), false);
+            for (MusicBar musicBar : musicBars) {
+                musicBar.moveToStore(store);
+            }
+        }
+        else if (!columnarStorage && store != null) {
+            for (MusicBar musicBar : musicBars) {
+                detach(musicBar);
+            }
+            store = null;
+        }
+    }
+
+    /**
+     * Check if the bars with the same content share their notes
+     * @return true if the deduplication is enabled
+     */
+    public boolean isBarDeduplication() {
+        return canonicalMusicBars != null;
+    }
+
+    /**
+     * Enable or disable the deduplication of the bars.
+     * With the deduplication, the bars with the same notes and the same alternative structures share the notes
+     * of a single canonical bar, which is never modified : a repeated bar costs the size of the bar object only.
+     * A shared bar gets back its own notes when it is modified (copy on write) : enable the deduplication again
+     * to share the modified bars. The exporters write the repeated bars as references to the first bar.
+     * Can not be used with the columnar storage.
+     * @param barDeduplication true to enable the deduplication
+     */
+    public void setBarDeduplication(boolean barDeduplication) {
+        if (barDeduplication && store != null) {
+            throw new IllegalStateException("The deduplication of the bars can not be used with the columnar storage");
+        }
+        if (barDeduplication) {
+            loadAllMusicBars();
+            canonicalMusicBars = new HashMap<>();
+            for (MusicBar musicBar : musicBars) {
+                deduplicate(musicBar);
+            }
+        }
+        else {
+            canonicalMusicBars = null;
+        }
+    }
+
+    /**
+     * Share the notes of a bar with the canonical bar of its content, a copy of the bar becomes canonical if its content is new
+     * @param musicBar the bar
+     */
+    private void deduplicate(MusicBar musicBar) {
+        CanonicalMusicBar canonicalMusicBar = canonicalMusicBars.get(new MusicBarContent(musicBar));
+        if (canonicalMusicBar == null) {
+            canonicalMusicBar = new CanonicalMusicBar(musicBar.copyMusicBar());
+            canonicalMusicBars.put(new MusicBarContent(canonicalMusicBar.musicBar), canonicalMusicBar);
+        }
+        musicBar.shareNotes(canonicalMusicBar.musicBar);
+        canonicalMusicBar.users++;
+    }
+
+    /**
+     * Stop sharing the notes of a bar with its canonical bar, before its modification or its removal
+     * The canonical bar is forgotten when its last bar leaves it.
+     * @param musicBar the bar
+     */
+    private void releaseCanonical(MusicBar musicBar) {
+        if (!musicBar.isSharingNotes()) {
+            return;
+        }
+        MusicBarContent content = new MusicBarContent(musicBar);
+        CanonicalMusicBar canonicalMusicBar = canonicalMusicBars.get(content);
+        if (canonicalMusicBar != null && musicBar.sharesNotes(canonicalMusicBar.musicBar) && --canonicalMusicBar.users == 0) {
+            canonicalMusicBars.remove(content);
+        }
+    }
+
+    /**
+     * Check if the rendering of the bars in the ascii tab is cached
+     * @return true if the render cache is enabled
+     */
+    public boolean isRenderCache() {
+        return renderCache != null;
+    }
+
+    /**
+     * Enable or disable the cache of the rendering of the bars in the ascii tab (toString, exportToTxt).
+     * With the cache, only the bars modified since the last rendering are rendered again.
+     * @param renderCache true to enable the render cache
+     */
+    public void setRenderCache(boolean renderCache) {
+        if (renderCache && this.renderCache == null) {
+            this.renderCache = new TabRenderCache();
+        }
+        else if (!renderCache) {
+            this.renderCache = null;
+        }
+    }
+
+    /**
+     * Get the number of bars found in the render cache
+     * @return the number of hits, 0 if the render cache is disabled
+     */
+    public long getRenderCacheHits() {
+        return renderCache == null ? 0 : renderCache.getHits();
+    }
+
+    /**
+     * Get the number of bars rendered because they were not in the render cache, or modified
+     * @return the number of misses, 0 if the render cache is disabled
+     */
+    public long getRenderCacheMisses() {
+        return renderCache == null ? 0 : renderCache.getMisses();
+    }
+
+    /**
+     * Get the render cache
+     * @return the cache, null if the render cache is disabled
+     */
+    TabRenderCache getRenderCache() {
+        return renderCache;
+    }
+
     /**
      * Get the number of Music bars
      * @return the number of music bar
@@ -53,6 +253,9 @@ public class MusicPartition implements Iterable<MusicBar> {
      * @param musicBar the bar to add
      */
     public void addMusicBar(MusicBar musicBar) {
+        loadAllMusicBars();
+        fireMusicBarAdded(musicBars.size() + 1, musicBar);
+        attach(musicBar);
         musicBars.add(musicBar);
     }
 
@@ -61,6 +264,9 @@ public class MusicPartition implements Iterable<MusicBar> {
      * @param musicBar the bar to add
      */
     public void addMusicBar(int index, MusicBar musicBar) {
+        loadAllMusicBars();
+        fireMusicBarAdded(index, musicBar);
+        attach(musicBar);
         musicBars.add(index-1, musicBar);
     }
 
@@ -78,7 +284,17 @@ public class MusicPartition implements Iterable<MusicBar> {
      * @param musicBar the music bar to set
      */
     public void setMusicBar(int index, MusicBar musicBar) {
-        musicBars.set(index-1, musicBar);
+        // The bar already in the partition is already attached
+        boolean replaced = musicBars.get(index-1) != musicBar;
+        if (replaced) {
+            fireMusicBarRemoved(index, musicBars.get(index-1));
+            fireMusicBarAdded(index, musicBar);
+            attach(musicBar);
+        }
+        MusicBar oldMusicBar = musicBars.set(index-1, musicBar);
+        if (replaced) {
+            detach(oldMusicBar);
+        }
     }
 
     /**
@@ -86,7 +302,11 @@ public class MusicPartition implements Iterable<MusicBar> {
      * @param musicBar the bar to remove
      */
     public void removeMusicBar(MusicBar musicBar) {
-        musicBars.remove(musicBar);
+        loadAllMusicBars();
+        int index = musicBars.indexOf(musicBar);
+        if (index >= 0) {
+            removeMusicBar(index+1);
+        }
     }
 
     /**
@@ -94,67 +314,124 @@ public class MusicPartition implements Iterable<MusicBar> {
      * @param index the index of the bar to remove
      */
     public void removeMusicBar(int index) {
-        musicBars.remove(index-1);
+        loadAllMusicBars();
+        fireMusicBarRemoved(index, musicBars.get(index-1));
+        detach(musicBars.remove(index-1));
     }
 
-
-    @Override
-    public String toString() {
-        StringBuilder upperLowerString = new StringBuilder("---");
-        StringBuilder title1 = new StringBuilder();
-        StringBuilder title2 = new StringBuilder();
-        StringBuilder notesString = new StringBuilder("--|");
-        Map<String, StringBuilder> parts = new HashMap<>();
-
-        // Create the full line structure :
-        LineStructure commonLineStructure = new LineStructure(Collections.<String>emptyList());
-        for (MusicBar musicBar : musicBars) {
-            for (int i = 1; i <= settings.notesNumber; i++) {
-                LineStructure structure = musicBar.getLineStructure(i);
-                commonLineStructure = commonLineStructure.getUnion(structure);
+    /**
+     * Read all the bars of the file in memory, and stop the lazy loading
+     */
+    private void loadAllMusicBars() {
+        if (lazyMusicBars != null) {
+            musicBars = new ArrayList<>(lazyMusicBars);
+            lazyMusicBars.close();
+            lazyMusicBars = null;
+            for (MusicBar musicBar : musicBars) {
+                musicBar.setPartition(this);
             }
         }
+    }
 
-        // Set the titles :
-        title1.append("# Title : ").append(title).append(" -- Author : ").append(author);
-        title2.append("# Structure : ").append(settings.notesNumber).append("/").append(settings.notesValue).append(" -- Tempo : ").append((int) (settings.tempo)).append(" bpm");
+    /**
+     * Add a listener notified of the modifications of the partition and of its bars
+     * Reads all the bars if the bars are read on demand
+     * @param editListener the listener
+     */
+    void addEditListener(PartitionEditListener editListener) {
+        loadAllMusicBars();
+        editListeners.add(editListener);
+    }
 
-        // Set the part name :
-        for (String line : commonLineStructure) {
-            parts.put(line, new StringBuilder(line.substring(0, 2) + '|'));
+    /**
+     * Remove a listener of the modifications
+     * @param editListener the listener
+     */
+    void removeEditListener(PartitionEditListener editListener) {
+        editListeners.remove(editListener);
+    }
+
+    /**
+     * Called by a bar of the partition before a modification
+     * @param musicBar the bar
+     * @param beatNumber the modified beat
+     */
+    void musicBarModified(MusicBar musicBar, int beatNumber) {
+        version++;
+        if (canonicalMusicBars != null) {
+            releaseCanonical(musicBar);
         }
+        for (PartitionEditListener editListener : editListeners) {
+            editListener.onBeatModified(musicBar, beatNumber);
+        }
+    }
 
-        // Fill the tab
+    private void fireMusicBarAdded(int index, MusicBar musicBar) {
+        version++;
+        for (PartitionEditListener editListener : editListeners) {
+            editListener.onMusicBarAdded(index, musicBar);
+        }
+    }
+
+    private void fireMusicBarRemoved(int index, MusicBar musicBar) {
+        version++;
+        for (PartitionEditListener editListener : editListeners) {
+            editListener.onMusicBarRemoved(index, musicBar);
+        }
+    }
+
+    /**
+     * Get a copy of the partition (snapshot)
+     * The bars of the copy share their notes with the bars of the partition until they are modified,
+     * the cost of the copy does not depend on the number of notes, except with the columnar storage.
+     * @return a copy of the partition, without columnar storage
+     */
+    public MusicPartition copyMusicPartition() {
+        MusicPartition copy = new MusicPartition(title, author, settings);
         for (MusicBar musicBar : musicBars) {
-            upperLowerString.append("-");
-            for (int beat = 1; beat <= settings.notesNumber; beat++) {
-                for (int note = 1; note <= musicBar.getBeatStructure(beat).size(); note++) {
-
-                    notesString.append(note == 1 ? beat : "-");
-                    upperLowerString.append("-");
-                    for (String lineType : commonLineStructure) {
-                        String s = musicBar.isNote(lineType, beat, note) ? "x" : "-";
-                        parts.get(lineType).append(s);
-                    }
-                }
-            }
-            notesString.append("|");
-            for (StringBuilder part : parts.values()) {
-                part.append('|');
-            }
+            copy.addMusicBar(musicBar.copyMusicBar());
         }
+        return copy;
+    }
 
-        StringBuilder string = new StringBuilder(upperLowerString).append('\n');
-        string.append(title1).append('\n');
-        string.append(title2).append('\n');
-        string.append(notesString).append('\n');
-        for (String line : commonLineStructure) {
-            string.append(parts.get(line)).append('\n');
+    /**
+     * Link a bar added in the partition to the partition, and move its notes in the store of the partition
+     * @param musicBar the added bar
+     */
+    private void attach(MusicBar musicBar) {
+        musicBar.setPartition(this);
+        if (store != null) {
+            musicBar.moveToStore(store);
         }
-        string.append(upperLowerString).append('\n');
+        if (canonicalMusicBars != null) {
+            deduplicate(musicBar);
+        }
+    }
 
-        return String.valueOf(string);
+    /**
+     * Unlink a bar removed from the partition, and give it its own store
+     * @param musicBar the removed bar
+     */
+    private void detach(MusicBar musicBar) {
+        if (musicBar.getPartition() == this) {
+            musicBar.setPartition(null);
+        }
+        if (canonicalMusicBars != null) {
+            releaseCanonical(musicBar);
+        }
+        if (store != null) {
+            musicBar.moveToStore(new NotesStore(settings.notesNumber, 1, true));
+        }
+    }
 
+
+    /**
+     * Get the partition as an ascii tab
+     * @see PartitionTabRenderer
+     */
+    @Override
+    public String toString() {
+        return new PartitionTabRenderer(this).render();
     }
 
     @Override
@@ -162,6 +439,19 @@ public class MusicPartition implements Iterable<MusicBar> {
         return new MusicBarIterator();
     }
 
+    /**
+     * A canonical bar of the deduplication, and the number of bars of the partition sharing its notes
+     */
+    private static final class CanonicalMusicBar {
+
+        private final MusicBar musicBar;
+        private int users = 0;
+
+        CanonicalMusicBar(MusicBar musicBar) {
+            this.musicBar = musicBar;
+        }
+    }
+
     /** An iterator for the LineStructure
      */
     private class MusicBarIterator implements Iterator<MusicBar> {
@@ -187,8 +477,10 @@ public class MusicPartition implements Iterable<MusicBar> {
                 throw  new IllegalStateException();
             }
 
+            loadAllMusicBars();
             try {
-                musicBars.remove(--index);
+                fireMusicBarRemoved(index, musicBars.get(index-1));
+                detach(musicBars.remove(--index));
             }
             catch (IndexOutOfBoundsException e) {
                 throw new ConcurrentModificationException();
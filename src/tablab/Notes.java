@@ -1,20 +1,24 @@
 package tablab;
 
-class Notes {
+/**
+ * The notes of a beat, on a line.
+ * The notes are encoding in an integer (long) : each bit of the integer indicate if there is or not a note at the position.
+ * The position 1 is the lowest bit. The number of note (i.e. the number of bits used) is determined uphill, 64 at most.
+ * The static methods do the same operations directly on the compressed notes (the long), without allocation.
+ * To handle more than 64 positions, see WideNotes.
+ */
+public class Notes {
 
-    // The notes of a beat are encoding in an integer (long)
-    // Each bit of the integer indicate if there is or not a note at the position
-    // The number of note (i.e. the number of bits used) is determined uphill
     private long notes = 0b0;
 
     /** Create new empty notes
      */
-    Notes() {}
+    public Notes() {}
 
     /** Create notes from data
      * @param notes the notes data
      */
-    Notes(long notes) {
+    public Notes(long notes) {
         this.notes = notes;
     }
 
@@ -32,9 +36,7 @@ class Notes {
      * @param noteNumber the position > 0
      */
     public void addNote(int noteNumber) {
-        long note = (long) Math.pow(2,noteNumber-1);
-        notes |= note;
-
+        notes = addNote(notes, noteNumber);
     }
 
     /**
@@ -43,8 +45,7 @@ class Notes {
      * @param noteNumber the position > 0
      */
     public void removeNote(int noteNumber) {
-        long note = (long) Math.pow(2,noteNumber-1);
-        notes &= (~note);
+        notes = removeNote(notes, noteNumber);
     }
 
 
@@ -54,8 +55,66 @@ class Notes {
      * @return if there is a note at the given position
      */
     public boolean isNote(int noteNumber) {
-        long note = (long) Math.pow(2,noteNumber-1);
-        return (notes & note) != 0;
+        return isNote(notes, noteNumber);
+    }
+
+    /**
+     * Get the number of notes
+     * @return the number of positions with a note
+     */
+    public int count() {
+        return count(notes);
+    }
+
+    /**
+     * Check if there is no note
+     * @return true if there is no note at any position
+     */
+    public boolean isEmpty() {
+        return notes == 0;
+    }
+
+    /**
+     * Get the first position with a note, from a given position
+     * Use to iterate on the notes : for (int n = notes.nextNote(1); n > 0; n = notes.nextNote(n + 1))
+     * @param noteNumber the first position to check > 0
+     * @return the first position with a note, greater or equal to noteNumber, -1 if there is no more note
+     */
+    public int nextNote(int noteNumber) {
+        return nextNote(notes, noteNumber);
+    }
+
+    /**
+     * Keep only the notes present in these notes and in the other notes
+     * @param other the other notes
+     */
+    public void and(Notes other) {
+        notes &= other.notes;
+    }
+
+    /**
+     * Add all the notes of the other notes
+     * @param other the other notes
+     */
+    public void or(Notes other) {
+        notes |= other.notes;
+    }
+
+    /**
+     * Keep only the notes present in these notes or in the other notes, but not in both
+     * @param other the other notes
+     */
+    public void xor(Notes other) {
+        notes ^= other.notes;
+    }
+
+    /**
+     * Move all the notes
+     * The notes moved out of the 64 positions are lost
+     * @param positions the number of positions, later if positive, earlier if negative
+     */
+    public void shift(int positions) {
+        notes = shift(notes, positions);
     }
 
     /**
@@ -63,8 +122,96 @@ class Notes {
      * @return A copy of the notes
      */
     public Notes copyNotes() {
-        Notes n = new Notes();
-        n.notes = this.notes;
-        return n;
+        return new Notes(notes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Notes && ((Notes) o).notes == notes;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.valueOf(notes).hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return Long.toBinaryString(notes);
+    }
+
+    /**
+     * Get the bit of a position in the compressed notes
+     * @param noteNumber the position > 0
+     * @return the bit of the position, 0 if the position is not between 1 and 64
+     */
+    public static long mask(int noteNumber) {
+        return noteNumber < 1 || noteNumber > Long.SIZE ? 0 : 1L << (noteNumber - 1);
+    }
+
+    /**
+     * Add a note in compressed notes
+     * @param notes the compressed notes
+     * @param noteNumber the position > 0
+     * @return the compressed notes with the note
+     */
+    public static long addNote(long notes, int noteNumber) {
+        return notes | mask(noteNumber);
+    }
+
+    /**
+     * Remove a note in compressed notes
+     * @param notes the compressed notes
+     * @param noteNumber the position > 0
+     * @return the compressed notes without the note
+     */
+    public static long removeNote(long notes, int noteNumber) {
+        return notes & ~mask(noteNumber);
+    }
+
+    /**
+     * Determine if there is a note at the given position in compressed notes
+     * @param notes the compressed notes
+     * @param noteNumber the position > 0
+     * @return if there is a note at the given position
+     */
+    public static boolean isNote(long notes, int noteNumber) {
+        return (notes & mask(noteNumber)) != 0;
+    }
+
+    /**
+     * Get the number of notes in compressed notes
+     * @param notes the compressed notes
+     * @return the number of positions with a note
+     */
+    public static int count(long notes) {
+        return Long.bitCount(notes);
+    }
+
+    /**
+     * Get the first position with a note in compressed notes, from a given position
+     * @param notes the compressed notes
+     * @param noteNumber the first position to check > 0
+     * @return the first position with a note, greater or equal to noteNumber, -1 if there is no more note
+     */
+    public static int nextNote(long notes, int noteNumber) {
+        if (noteNumber > Long.SIZE) {
+            return -1;
+        }
+        long remaining = noteNumber <= 1 ? notes : notes & (-1L << (noteNumber - 1));
+        return remaining == 0 ? -1 : Long.numberOfTrailingZeros(remaining) + 1;
+    }
+
+    /**
+     * Move all the notes of compressed notes
+     * @param notes the compressed notes
+     * @param positions the number of positions, later if positive, earlier if negative
+     * @return the moved compressed notes
+     */
+    public static long shift(long notes, int positions) {
+        if (positions >= Long.SIZE || positions <= -Long.SIZE) {
+            return 0;
+        }
+        return positions >= 0 ? notes << positions : notes >>> -positions;
     }
 }
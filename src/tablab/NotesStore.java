@@ -0,0 +1,202 @@
+package tablab;
+
+import java.util.Arrays;
+
+/**
+ * NotesStore contains the compressed notes of one or several music bars in a single array of longs.
+ * Each bar owns a slot of the store, and a slot contains one cell (the compressed notes) for each beat and each line.
+ * The cell of a line in a beat is found with index arithmetic : ((slot * notesNumber) + beat) * lineCapacity + column
+ *
+ * The lines are registered on the fly in the store, each line (see LineDictionary) get a column the first time it is written.
+ * A cell of a line not written in a slot is always 0 (no notes).
+ *
+ * The slots of a shareable store can be shared by several bars (copy on write) : a slot has a number of references,
+ * and is released when its last reference is released. A bar must not modify a shared slot.
+ */
+final class NotesStore {
+
+    // The number of beats in a slot (i.e. in a bar)
+    private final int notesNumber;
+
+    // True if the slots can be shared by several bars
+    private final boolean shareable;
+
+    // The cells of the store
+    private long[] data;
+    private int slotCapacity;
+    private int lineCapacity;
+
+    // Slot allocation : slots are allocated from 0 to slotCount, released slots are reused
+    private int slotCount = 0;
+    private int[] freeSlots = new int[4];
+    private int freeSlotCount = 0;
+
+    // The number of bars using each slot
+    private int[] references;
+
+    // The column of each line id, -1 if the line has no column
+    private int[] columns = new int[0];
+    private int columnCount = 0;
+
+    /**
+     * Create an empty store
+     * @param notesNumber the number of beats in a bar
+     * @param slotCapacity the initial number of bars the store can contain without growing
+     * @param shareable true if the slots can be shared by several bars
+     */
+    NotesStore(int notesNumber, int slotCapacity, boolean shareable) {
+        this.notesNumber = notesNumber;
+        this.shareable = shareable;
+        this.slotCapacity = Math.max(slotCapacity, 1);
+        this.lineCapacity = 1;
+        this.data = new long[this.slotCapacity * notesNumber * lineCapacity];
+        this.references = new int[this.slotCapacity];
+    }
+
+    /**
+     * Get the number of beats in a slot
+     * @return the number of beats
+     */
+    int getNotesNumber() {
+        return notesNumber;
+    }
+
+    /**
+     * Check if the slots can be shared by several bars
+     * @return true if the slots can be shared
+     */
+    boolean isShareable() {
+        return shareable;
+    }
+
+    /**
+     * Get the column of a line
+     * @param lineId the id of the line
+     * @return the column of the line, -1 if the line has never been written in the store
+     */
+    int getColumn(int lineId) {
+        return lineId < 0 || lineId >= columns.length ? -1 : columns[lineId];
+    }
+
+    /**
+     * Get the column of a line, create it if the line is not yet in the store
+     * @param lineId the id of the line
+     * @return the column of the line
+     */
+    int addColumn(int lineId) {
+        if (lineId >= columns.length) {
+            int oldLength = columns.length;
+            columns = Arrays.copyOf(columns, Math.max(lineId + 1, oldLength * 2));
+            Arrays.fill(columns, oldLength, columns.length, -1);
+        }
+        if (columns[lineId] < 0) {
+            if (columnCount == lineCapacity) {
+                resize(slotCapacity, lineCapacity * 2);
+            }
+            columns[lineId] = columnCount++;
+        }
+        return columns[lineId];
+    }
+
+    /**
+     * Allocate a new slot, with empty cells
+     * @return the slot
+     */
+    int allocateSlot() {
+        int slot;
+        if (freeSlotCount > 0) {
+            slot = freeSlots[--freeSlotCount];
+        }
+        else {
+            if (slotCount == slotCapacity) {
+                resize(slotCapacity * 2, lineCapacity);
+            }
+            slot = slotCount++;
+        }
+        references[slot] = 1;
+        return slot;
+    }
+
+    /**
+     * Add a reference to a slot, the slot is shared by one more bar
+     * @param slot the slot
+     */
+    void retainSlot(int slot) {
+        if (!shareable) {
+            throw new IllegalStateException("The slots of the store can not be shared");
+        }
+        references[slot]++;
+    }
+
+    /**
+     * Check if a slot is used by several bars
+     * @param slot the slot
+     * @return true if the slot is shared
+     */
+    boolean isShared(int slot) {
+        return references[slot] > 1;
+    }
+
+    /**
+     * Release a reference to a slot : the last release empties the slot, and the slot can be reused by a next allocation
+     * @param slot the slot to release
+     */
+    void releaseSlot(int slot) {
+        if (--references[slot] > 0) {
+            return;
+        }
+        int start = slot * notesNumber * lineCapacity;
+        for (int i = start; i < start + notesNumber * lineCapacity; i++) {
+            data[i] = 0;
+        }
+        if (freeSlotCount == freeSlots.length) {
+            int[] newFreeSlots = new int[freeSlots.length * 2];
+            System.arraycopy(freeSlots, 0, newFreeSlots, 0, freeSlotCount);
+            freeSlots = newFreeSlots;
+        }
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    /**
+     * Get the compressed notes of a cell
+     * @param slot the slot
+     * @param beatIndex the beat index (from 0)
+     * @param column the column of the line
+     * @return the compressed notes
+     */
+    long get(int slot, int beatIndex, int column) {
+        return data[(slot * notesNumber + beatIndex) * lineCapacity + column];
+    }
+
+    /**
+     * Set the compressed notes of a cell
+     * @param slot the slot
+     * @param beatIndex the beat index (from 0)
+     * @param column the column of the line
+     * @param notes the compressed notes
+     */
+    void set(int slot, int beatIndex, int column, long notes) {
+        data[(slot * notesNumber + beatIndex) * lineCapacity + column] = notes;
+    }
+
+    /**
+     * Grow the store, and move the cells to their new index
+     * @param newSlotCapacity the new number of slots
+     * @param newLineCapacity the new number of columns
+     */
+    private void resize(int newSlotCapacity, int newLineCapacity) {
+        long[] newData = new long[newSlotCapacity * notesNumber * newLineCapacity];
+        if (newLineCapacity == lineCapacity) {
+            System.arraycopy(data, 0, newData, 0, data.length);
+        }
+        else {
+            for (int row = 0; row < slotCapacity * notesNumber; row++) {
+                System.arraycopy(data, row * lineCapacity, newData, row * newLineCapacity, lineCapacity);
+            }
+        }
+        data = newData;
+        references = Arrays.copyOf(references, newSlotCapacity);
+        slotCapacity = newSlotCapacity;
+        lineCapacity = newLineCapacity;
+    }
+}
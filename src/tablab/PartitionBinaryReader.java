@@ -0,0 +1,305 @@
+package tablab;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static tablab.PartitionFileManager.*;
+
+/**
+ * PartitionBinaryReader reads a partition in the binary format (see PartitionBinaryWriter).
+ * The header is read at the creation, the bars are read on demand with their offsets :
+ * any bar can be read without reading the previous ones, and by several threads at the same time.
+ * The version 1 of the format (without the repeated bars) is still read.
+ */
+final class PartitionBinaryReader {
+
+    private final String title;
+    private final String author;
+    private final PartitionSettings settings;
+
+    // The dictionaries of the file
+    private final String[] lines;
+    private final BeatStructure[] beatStructures;
+    private final LineStructure[] lineStructures;
+    private final int[][] lineStructureLines;
+    private final int defaultLineStructure;
+    private final int version;
+
+    // The bars, and the table of the offsets of the bars in this buffer
+    private final int musicBarNumber;
+    private final ByteBuffer bars;
+    private final ByteBuffer offsets;
+
+    /**
+     * Read the header of a partition
+     * @param buffer the bytes of the partition, from the position to the limit. The position of the buffer is not modified
+     * @throws IOException if the bytes are not a correct partition
+     */
+    PartitionBinaryReader(ByteBuffer buffer) throws IOException {
+        ByteBuffer in = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        try {
+            byte[] magic = new byte[BINARY_MAGIC.length];
+            in.get(magic);
+            if (!Arrays.equals(magic, BINARY_MAGIC)) {
+                throw new IOException("Not a binary partition");
+            }
+            version = in.get();
+            if (version < 1 || version > BINARY_VERSION) {
+                throw new IOException("Unsupported version of binary partition : " + version);
+            }
+
+            title = readNullableString(in);
+            author = readNullableString(in);
+
+            settings = new PartitionSettings();
+            settings.notesNumber = readCount(in);
+            settings.notesValue = readCount(in);
+            settings.tempo = Float.intBitsToFloat(in.getInt());
+
+            lines = new String[readCount(in)];
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = readString(in);
+            }
+            beatStructures = new BeatStructure[readCount(in)];
+            for (int i = 0; i < beatStructures.length; i++) {
+                beatStructures[i] = createBeatStructureFromString(readString(in));
+            }
+            lineStructures = new LineStructure[readCount(in)];
+            lineStructureLines = new int[lineStructures.length][];
+            for (int i = 0; i < lineStructures.length; i++) {
+                int[] structureLines = new int[readCount(in)];
+                String[] names = new String[structureLines.length];
+                for (int j = 0; j < structureLines.length; j++) {
+                    structureLines[j] = readIndex(in, lines.length);
+                    names[j] = lines[structureLines[j]];
+                }
+                lineStructures[i] = new LineStructure(Arrays.asList(names));
+                if (lineStructures[i].size() != structureLines.length) {
+                    throw new IOException("Duplicate line in a line structure");
+                }
+                lineStructureLines[i] = structureLines;
+            }
+            settings.beatStructure = beatStructures[readIndex(in, beatStructures.length)];
+            defaultLineStructure = readIndex(in, lineStructures.length);
+            settings.lineStructure = lineStructures[defaultLineStructure];
+
+            // The offsets are read when a bar is read : the opening does not depend on the number of bars
+            int nbBars = readCount(in);
+            if (nbBars > (in.remaining() - 4) / 4) {
+                throw new IOException("Truncated partition");
+            }
+            musicBarNumber = nbBars;
+            offsets = in.slice();
+            offsets.limit((nbBars + 1) * 4);
+            in.position(in.position() + (nbBars + 1) * 4);
+            bars = in.slice();
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupted partition", e);
+        }
+    }
+
+    /**
+     * Read a partition in the binary format
+     * @param buffer the bytes of the partition, from the position to the limit. The position of the buffer is not modified
+     * @return the music partition
+     * @throws IOException if the bytes are not a correct partition
+     */
+    static MusicPartition read(ByteBuffer buffer) throws IOException {
+        PartitionBinaryReader reader = new PartitionBinaryReader(buffer);
+        MusicPartition partition = new MusicPartition(reader.getTitle(), reader.getAuthor(), reader.getSettings());
+        for (int i = 1; i <= reader.getMusicBarNumber(); i++) {
+            int repeatedIndex = reader.getRepeatedIndex(i);
+            // A repeated bar shares the notes of the bar already read
+            partition.addMusicBar(repeatedIndex == i ? reader.readMusicBar(i) : partition.getMusicBar(repeatedIndex).copyMusicBar());
+        }
+        return partition;
+    }
+
+    String getTitle() {
+        return title;
+    }
+
+    String getAuthor() {
+        return author;
+    }
+
+    PartitionSettings getSettings() {
+        return settings;
+    }
+
+    int getMusicBarNumber() {
+        return musicBarNumber;
+    }
+
+    /**
+     * Get the index of the bar containing the content of a bar
+     * @param index the index of the bar, between 1 and getMusicBarNumber()
+     * @return the index of the first bar with the same content, index if the bar is not a repeated bar
+     * @throws IOException if the bar is not correct
+     */
+    int getRepeatedIndex(int index) throws IOException {
+        if (version < 2) {
+            return index;
+        }
+        try {
+            int repeatedIndex = readCount(getMusicBarBytes(index));
+            if (repeatedIndex >= index) {
+                throw new IOException("Incorrect repeated bar " + repeatedIndex + " in the bar " + index);
+            }
+            return repeatedIndex == 0 ? index : repeatedIndex;
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Corrupted bar " + index, e);
+        }
+    }
+
+    /**
+     * Read a bar
+     * @param index the index of the bar, between 1 and getMusicBarNumber()
+     * @return a new music bar
+     * @throws IOException if the bar is not correct
+     */
+    MusicBar readMusicBar(int index) throws IOException {
+        // The repeated bars are before the bar : the loop ends
+        int repeatedIndex = getRepeatedIndex(index);
+        while (repeatedIndex != index) {
+            index = repeatedIndex;
+            repeatedIndex = getRepeatedIndex(index);
+        }
+        ByteBuffer in = getMusicBarBytes(index);
+
+        try {
+            if (version >= 2) {
+                readCount(in);
+            }
+            MusicBar musicBar = new MusicBar(settings);
+
+            int specialBeats = readCount(in);
+            for (int i = 0; i < specialBeats; i++) {
+                int beat = readBeat(in);
+                musicBar.setSpecialBeatStructure(beatStructures[readIndex(in, beatStructures.length)], beat);
+            }
+            int specialLines = readCount(in);
+            int[] beatLineStructures = new int[settings.notesNumber + 1];
+            Arrays.fill(beatLineStructures, defaultLineStructure);
+            for (int i = 0; i < specialLines; i++) {
+                int beat = readBeat(in);
+                int structure = readIndex(in, lineStructures.length);
+                musicBar.setSpecialLineStructure(lineStructures[structure], beat);
+                beatLineStructures[beat] = structure;
+            }
+
+            long[] previous = new long[lines.length];
+            int nonZero = readCount(in);
+            int zeros = nonZero > 0 ? readCount(in) : Integer.MAX_VALUE;
+            for (int beat = 1; beat <= settings.notesNumber; beat++) {
+                LineStructure lineStructure = lineStructures[beatLineStructures[beat]];
+                int[] structureLines = lineStructureLines[beatLineStructures[beat]];
+
+                for (int i = 0; i < structureLines.length; i++) {
+                    long value = 0;
+                    if (zeros == 0) {
+                        value = readVarint(in);
+                        zeros = --nonZero > 0 ? readCount(in) : Integer.MAX_VALUE;
+                    }
+                    else {
+                        zeros--;
+                    }
+                    int line = structureLines[i];
+                    long notes = value ^ previous[line];
+                    previous[line] = notes;
+                    if (notes != 0) {
+                        musicBar.setCompressedNotes(lineStructure.get(i), beat, notes);
+                    }
+                }
+            }
+            if (nonZero > 0 || in.hasRemaining()) {
+                throw new IOException("Incorrect notes in the bar " + index);
+            }
+            return musicBar;
+        }
+        catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupted bar " + index, e);
+        }
+    }
+
+    /**
+     * Get the bytes of a bar
+     * @param index the index of the bar, between 1 and getMusicBarNumber()
+     * @return a buffer from the start to the end of the bar
+     * @throws IOException if the offsets of the bar are not correct
+     */
+    private ByteBuffer getMusicBarBytes(int index) throws IOException {
+        if (index < 1 || index > musicBarNumber) {
+            throw new IndexOutOfBoundsException("Bar " + index + " not in the partition");
+        }
+        int start = offsets.getInt((index - 1) * 4);
+        int end = offsets.getInt(index * 4);
+        if (start < 0 || end < start || end > bars.limit()) {
+            throw new IOException("Incorrect offset of the bar " + index);
+        }
+        ByteBuffer in = bars.duplicate();
+        in.limit(end);
+        in.position(start);
+        return in;
+    }
+
+    private int readBeat(ByteBuffer in) throws IOException {
+        int beat = readCount(in);
+        if (beat < 1 || beat > settings.notesNumber) {
+            throw new IOException("Incorrect beat number : " + beat);
+        }
+        return beat;
+    }
+
+    static long readVarint(ByteBuffer in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IOException("Incorrect varint");
+    }
+
+    static int readCount(ByteBuffer in) throws IOException {
+        long value = readVarint(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Incorrect count : " + value);
+        }
+        return (int) value;
+    }
+
+    private static int readIndex(ByteBuffer in, int size) throws IOException {
+        int index = readCount(in);
+        if (index >= size) {
+            throw new IOException("Incorrect index : " + index);
+        }
+        return index;
+    }
+
+    static String readString(ByteBuffer in) throws IOException {
+        return readString(in, readCount(in));
+    }
+
+    static String readNullableString(ByteBuffer in) throws IOException {
+        int length = readCount(in);
+        return length == 0 ? null : readString(in, length - 1);
+    }
+
+    private static String readString(ByteBuffer in, int length) throws IOException {
+        if (length > in.remaining()) {
+            throw new IOException("Truncated partition");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,294 @@
+package tablab;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static tablab.PartitionFileManager.*;
+
+/**
+ * PartitionBinaryWriter writes a partition in the binary format, read by PartitionBinaryReader.
+ *
+ * All the integers are varints (7 bits by byte, lowest bits first) except the magic, the version, the tempo and the offsets.
+ * Header :
+ *   "TLAB", version (1 byte)
+ *   title, author : length + 1 (0 if null), UTF-8 bytes
+ *   settings : notes number, notes value, tempo (float, 4 bytes)
+ *   lines : count, then for each line its name (length, UTF-8 bytes)
+ *   beat structures : count, then for each structure its text (as in the xml)
+ *   line structures : count, then for each structure its size and the indexes of its lines
+ *   indexes of the beat structure and the line structure of the settings
+ *   bars : count, then count + 1 offsets (int, 4 bytes) of the bars, from the end of the table
+ * Bar :
+ *   repeat : 0, or the index of the first bar with the same content (the bar ends here), only for a partition
+ *            with bar deduplication
+ *   special beat structures : count, then (beat number, index of the structure) for each
+ *   special line structures : count, then (beat number, index of the structure) for each
+ *   notes : count of the non zero values, then (number of zero values before, value) for each
+ * The values of the notes are taken beat by beat, line by line (in the line structure of the beat),
+ * each value is the compressed notes xor the previous compressed notes of the same line in the bar :
+ * a repeated pattern and an empty line are both encoded as zero.
+ */
+final class PartitionBinaryWriter {
+
+    private final Buffer header = new Buffer();
+    private final Buffer bars = new Buffer();
+
+    // The dictionaries of the file : the text of the element and its index
+    private final Map<String, Integer> lines = new LinkedHashMap<>();
+    private final Map<String, Integer> beatStructures = new LinkedHashMap<>();
+    private final Map<String, Integer> lineStructures = new LinkedHashMap<>();
+    private final List<int[]> lineStructureLines = new ArrayList<>();
+
+    // The index of the first bar of each content, null if the bars of the partition are not deduplicated
+    private Map<MusicBarContent, Integer> writtenMusicBars = null;
+
+    private PartitionBinaryWriter() {
+    }
+
+    /**
+     * Write a partition in the binary format
+     * @param out the stream, not flushed and not closed by the method
+     * @param musicPartition the partition to write
+     * @throws IOException if error while writing
+     */
+    static void write(OutputStream out, MusicPartition musicPartition) throws IOException {
+        new PartitionBinaryWriter().writePartition(out, musicPartition);
+    }
+
+    private void writePartition(OutputStream out, MusicPartition musicPartition) throws IOException {
+        PartitionSettings settings = musicPartition.getSettings();
+        int defaultBeatStructure = getBeatStructureIndex(settings.beatStructure);
+        int defaultLineStructure = getLineStructureIndex(settings.lineStructure);
+
+        // The bars first, to fill the dictionaries and compute the offsets
+        int nbBars = musicPartition.getMusicBarNumber();
+        int[] offsets = new int[nbBars + 1];
+        long[] previous = new long[0];
+        if (musicPartition.isBarDeduplication()) {
+            writtenMusicBars = new HashMap<>();
+        }
+        for (int i = 1; i <= nbBars; i++) {
+            MusicBar musicBar = musicPartition.getMusicBar(i);
+            Integer repeatedIndex = null;
+            if (writtenMusicBars != null) {
+                MusicBarContent content = new MusicBarContent(musicBar);
+                repeatedIndex = writtenMusicBars.get(content);
+                if (repeatedIndex == null) {
+                    writtenMusicBars.put(content, i);
+                }
+            }
+            if (repeatedIndex != null) {
+                bars.writeVarint(repeatedIndex);
+            }
+            else {
+                bars.writeVarint(0);
+                previous = writeMusicBar(musicBar, settings, previous);
+            }
+            offsets[i] = bars.size;
+        }
+
+        header.writeBytes(BINARY_MAGIC);
+        header.writeByte(BINARY_VERSION);
+        header.writeNullableString(musicPartition.getTitle());
+        header.writeNullableString(musicPartition.getAuthor());
+
+        header.writeVarint(settings.notesNumber);
+        header.writeVarint(settings.notesValue);
+        header.writeInt(Float.floatToIntBits(settings.tempo));
+
+        header.writeVarint(lines.size());
+        for (String line : lines.keySet()) {
+            header.writeString(line);
+        }
+        header.writeVarint(beatStructures.size());
+        for (String beatStructure : beatStructures.keySet()) {
+            header.writeString(beatStructure);
+        }
+        header.writeVarint(lineStructureLines.size());
+        for (int[] structureLines : lineStructureLines) {
+            header.writeVarint(structureLines.length);
+            for (int line : structureLines) {
+                header.writeVarint(line);
+            }
+        }
+        header.writeVarint(defaultBeatStructure);
+        header.writeVarint(defaultLineStructure);
+
+        header.writeVarint(nbBars);
+        for (int offset : offsets) {
+            header.writeInt(offset);
+        }
+
+        out.write(header.bytes, 0, header.size);
+        out.write(bars.bytes, 0, bars.size);
+    }
+
+    /**
+     * Write a bar
+     * @param musicBar the bar
+     * @param settings the settings of the partition
+     * @param previous an array for the previous notes of each line, reused between the bars
+     * @return the array for the previous notes, possibly reallocated
+     */
+    private long[] writeMusicBar(MusicBar musicBar, PartitionSettings settings, long[] previous) {
+        int specialBeats = 0;
+        int specialLines = 0;
+        for (int beat = 1; beat <= settings.notesNumber; beat++) {
+            if (musicBar.hasSpecialBeatStructure(beat)) {
+                specialBeats++;
+            }
+            if (musicBar.hasSpecialLineStructure(beat)) {
+                specialLines++;
+            }
+        }
+
+        bars.writeVarint(specialBeats);
+        for (int beat = 1; beat <= settings.notesNumber && specialBeats > 0; beat++) {
+            if (musicBar.hasSpecialBeatStructure(beat)) {
+                bars.writeVarint(beat);
+                bars.writeVarint(getBeatStructureIndex(musicBar.getSpecialBeatStructure(beat)));
+            }
+        }
+        bars.writeVarint(specialLines);
+        for (int beat = 1; beat <= settings.notesNumber && specialLines > 0; beat++) {
+            if (musicBar.hasSpecialLineStructure(beat)) {
+                bars.writeVarint(beat);
+                bars.writeVarint(getLineStructureIndex(musicBar.getSpecialLineStructure(beat)));
+            }
+        }
+
+        // The values (xor the previous notes of the line), before the encoding of the zero runs
+        long[] values = new long[0];
+        int nbValues = 0;
+        int nonZero = 0;
+        Arrays.fill(previous, 0);
+        for (int beat = 1; beat <= settings.notesNumber; beat++) {
+            LineStructure lineStructure = musicBar.getLineStructure(beat);
+            int[] structureLines = lineStructureLines.get(getLineStructureIndex(lineStructure));
+            if (nbValues + structureLines.length > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, nbValues + structureLines.length));
+            }
+            for (int i = 0; i < structureLines.length; i++) {
+                int line = structureLines[i];
+                if (line >= previous.length) {
+                    previous = Arrays.copyOf(previous, Math.max(previous.length * 2, line + 1));
+                }
+                long notes = musicBar.getCompressedNotes(lineStructure.get(i), beat);
+                long value = notes ^ previous[line];
+                previous[line] = notes;
+                values[nbValues++] = value;
+                if (value != 0) {
+                    nonZero++;
+                }
+            }
+        }
+
+        bars.writeVarint(nonZero);
+        int zeros = 0;
+        for (int i = 0; i < nbValues; i++) {
+            if (values[i] == 0) {
+                zeros++;
+            }
+            else {
+                bars.writeVarint(zeros);
+                bars.writeVarint(values[i]);
+                zeros = 0;
+            }
+        }
+        return previous;
+    }
+
+    private int getBeatStructureIndex(BeatStructure beatStructure) {
+        String key = getBeatStructureAsString(beatStructure);
+        Integer index = beatStructures.get(key);
+        if (index == null) {
+            index = beatStructures.size();
+            beatStructures.put(key, index);
+        }
+        return index;
+    }
+
+    private int getLineStructureIndex(LineStructure lineStructure) {
+        String key = getLineStructureAsString(lineStructure);
+        Integer index = lineStructures.get(key);
+        if (index == null) {
+            index = lineStructures.size();
+            lineStructures.put(key, index);
+
+            int[] structureLines = new int[lineStructure.size()];
+            for (int i = 0; i < structureLines.length; i++) {
+                String line = lineStructure.get(i);
+                Integer lineIndex = lines.get(line);
+                if (lineIndex == null) {
+                    lineIndex = lines.size();
+                    lines.put(line, lineIndex);
+                }
+                structureLines[i] = lineIndex;
+            }
+            lineStructureLines.add(structureLines);
+        }
+        return index;
+    }
+
+    /**
+     * A growable array of bytes, with the encodings of the format
+     */
+    static final class Buffer {
+
+        byte[] bytes = new byte[256];
+        int size = 0;
+
+        void writeByte(int b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void writeBytes(byte[] b) {
+            writeBytes(b, 0, b.length);
+        }
+
+        void writeBytes(byte[] b, int off, int len) {
+            if (size + len > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size * 2, size + len));
+            }
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        void writeInt(int value) {
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void writeString(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(b.length);
+            writeBytes(b);
+        }
+
+        void writeNullableString(String s) {
+            if (s == null) {
+                writeVarint(0);
+            }
+            else {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                writeVarint(b.length + 1);
+                writeBytes(b);
+            }
+        }
+    }
+}
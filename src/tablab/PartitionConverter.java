@@ -0,0 +1,538 @@
+package tablab;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PartitionConverter converts all the partitions of a directory (and its sub directories) in another format.
+ * The converted partitions are written in a target directory, with the same tree.
+ *
+ * The conversion is a pipeline of three stages linked by bounded queues :
+ *   - a thread walks the tree and reads the files
+ *   - worker threads parse the partitions, transform them and write them in the target format (in memory)
+ *   - a thread writes the converted files
+ * An error on a file is kept in the report and does not stop the conversion of the other files.
+ *
+ * Usage : java tablab.PartitionConverter sourceDirectory targetDirectory sourceFormat targetFormat [threads]
+ */
+public class PartitionConverter {
+
+    /**
+     * The formats of the files
+     */
+    public enum Format {
+        XML(".xml", true),
+        BINARY(".tlab", true),
+        TXT(".txt", false);
+
+        private final String extension;
+        private final boolean readable;
+
+        Format(String extension, boolean readable) {
+            this.extension = extension;
+            this.readable = readable;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Check if the partitions can be read from this format
+         * @return true if the format can be read
+         */
+        public boolean isReadable() {
+            return readable;
+        }
+    }
+
+    /**
+     * A modification of the partitions, between the reading and the writing
+     */
+    public interface Transform {
+
+        /**
+         * Transform a partition
+         * @param musicPartition the partition read
+         * @return the partition to write, can be the same partition
+         */
+        MusicPartition transform(MusicPartition musicPartition);
+    }
+
+    // Marks the end of the files in the queues
+    private static final Item END = new Item(null, null);
+
+    private final Format sourceFormat;
+    private final Format targetFormat;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 16;
+    private Transform transform = null;
+
+    /**
+     * Create a converter
+     * @param sourceFormat the format of the files to convert, must be readable
+     * @param targetFormat the format of the converted files
+     */
+    public PartitionConverter(Format sourceFormat, Format targetFormat) {
+        if (!sourceFormat.isReadable()) {
+            throw new IllegalArgumentException("Can not read the format " + sourceFormat);
+        }
+        this.sourceFormat = sourceFormat;
+        this.targetFormat = targetFormat;
+    }
+
+    /**
+     * Set the number of threads parsing and writing the partitions
+     * By default, the number of processors
+     * @param threads the number of threads > 0
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads < 1");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Set the number of files waiting between two stages
+     * The memory used by the conversion depends on this number and on the size of the files
+     * @param queueCapacity the capacity of the queues > 0
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity < 1");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Set the modification of the partitions
+     * @param transform the transform applied to each partition, null to write the partitions as read
+     */
+    public void setTransform(Transform transform) {
+        this.transform = transform;
+    }
+
+    /**
+     * Convert all the files of a directory with the extension of the source format
+     * @param sourceDirectory the directory of the files to convert
+     * @param targetDirectory the directory of the converted files, created if needed
+     * @return the report of the conversion
+     * @throws IOException if the source directory can not be read
+     * @throws InterruptedException if the thread is interrupted, the conversion is stopped
+     */
+    public Report convert(String sourceDirectory, String targetDirectory) throws IOException, InterruptedException {
+        Path source = Paths.get(sourceDirectory);
+        Path target = Paths.get(targetDirectory);
+        if (!Files.isDirectory(source)) {
+            throw new NoSuchFileException(sourceDirectory, null, "not a directory");
+        }
+
+        Conversion conversion = new Conversion(source, target);
+        conversion.run();
+        return conversion.report;
+    }
+
+    /**
+     * Read a partition from the content of a file
+     * @param content the content of the file
+     * @return the partition
+     * @throws Exception if the content is not a correct partition
+     */
+    private MusicPartition read(byte[] content) throws Exception {
+        if (sourceFormat == Format.BINARY) {
+            return PartitionFileManager.importFromBinary(ByteBuffer.wrap(content));
+        }
+        return PartitionFileManager.importFromXml(ByteBuffer.wrap(content), null);
+    }
+
+    /**
+     * Write a partition in the target format
+     * @param musicPartition the partition
+     * @return the content of the file
+     * @throws IOException if error while writing
+     */
+    private byte[] write(MusicPartition musicPartition) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (targetFormat == Format.TXT) {
+            // Same as exportToTxt
+            Writer writer = new OutputStreamWriter(out, Charset.defaultCharset());
+            new PartitionTabRenderer(musicPartition).render(writer);
+            writer.flush();
+        }
+        else if (targetFormat == Format.BINARY) {
+            PartitionFileManager.exportToBinary(out, musicPartition);
+        }
+        else {
+            PartitionFileManager.exportToXml(out, musicPartition);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A file in the pipeline
+     */
+    private static final class Item {
+
+        final Path source;
+        final Path target;
+        byte[] content;
+        int bars;
+
+        Item(Path source, Path target) {
+            this.source = source;
+            this.target = target;
+        }
+    }
+
+    /**
+     * The threads and the queues of a conversion
+     */
+    private final class Conversion {
+
+        private final Path source;
+        private final Path target;
+        private final BlockingQueue<Item> readFiles = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<Item> convertedFiles = new ArrayBlockingQueue<>(queueCapacity);
+        private final Report report = new Report();
+
+        // True when the conversion is stopped : the stages end without waiting for each other
+        private volatile boolean stopped = false;
+
+        Conversion(Path source, Path target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        void run() throws InterruptedException {
+            long start = System.nanoTime();
+            List<Thread> stages = new ArrayList<>();
+            stages.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    readFiles();
+                }
+            }, "PartitionConverter-read"));
+            for (int i = 0; i < threads; i++) {
+                stages.add(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        convertFiles();
+                    }
+                }, "PartitionConverter-convert-" + i));
+            }
+            stages.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeFiles();
+                }
+            }, "PartitionConverter-write"));
+
+            for (Thread stage : stages) {
+                stage.start();
+            }
+            try {
+                for (Thread stage : stages) {
+                    stage.join();
+                }
+            }
+            catch (InterruptedException e) {
+                stopped = true;
+                for (Thread stage : stages) {
+                    stage.interrupt();
+                }
+                throw e;
+            }
+            report.elapsedTime = System.nanoTime() - start;
+        }
+
+        private void readFiles() {
+            try {
+                Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        String name = file.getFileName().toString();
+                        if (!attrs.isRegularFile() || !name.toLowerCase(Locale.ROOT).endsWith(sourceFormat.getExtension())) {
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        String targetName = name.substring(0, name.length() - sourceFormat.getExtension().length()) + targetFormat.getExtension();
+                        Item item = new Item(file, target.resolve(source.relativize(file)).resolveSibling(targetName));
+                        try {
+                            item.content = Files.readAllBytes(file);
+                            report.bytesRead.addAndGet(item.content.length);
+                            readFiles.put(item);
+                        }
+                        catch (IOException e) {
+                            report.addError(file, e);
+                        }
+                        catch (InterruptedException e) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) {
+                        report.addError(file, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            }
+            catch (IOException e) {
+                report.addError(source, e);
+            }
+            finally {
+                for (int i = 0; i < threads; i++) {
+                    putEnd(readFiles);
+                }
+            }
+        }
+
+        private void convertFiles() {
+            try {
+                for (Item item = readFiles.take(); item != END; item = readFiles.take()) {
+                    try {
+                        MusicPartition musicPartition = read(item.content);
+                        if (transform != null) {
+                            musicPartition = transform.transform(musicPartition);
+                        }
+                        item.bars = musicPartition.getMusicBarNumber();
+                        item.content = write(musicPartition);
+                    }
+                    catch (Exception e) {
+                        report.addError(item.source, e);
+                        continue;
+                    }
+                    convertedFiles.put(item);
+                }
+            }
+            catch (InterruptedException e) {
+                // Conversion stopped
+            }
+            finally {
+                putEnd(convertedFiles);
+            }
+        }
+
+        private void writeFiles() {
+            int ends = 0;
+            try {
+                while (ends < threads) {
+                    Item item = convertedFiles.take();
+                    if (item == END) {
+                        ends++;
+                        continue;
+                    }
+                    try {
+                        Files.createDirectories(item.target.getParent());
+                        Files.write(item.target, item.content);
+                        report.files.incrementAndGet();
+                        report.bars.addAndGet(item.bars);
+                        report.bytesWritten.addAndGet(item.content.length);
+                    }
+                    catch (IOException | RuntimeException e) {
+                        report.addError(item.source, e);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                // Conversion stopped
+            }
+            finally {
+                // Take the remaining files until the end of all the converters, so a converter never waits for a place
+                // in the queue. The stages of a stopped conversion do not send their end : nothing to wait.
+                try {
+                    while (!stopped && ends < threads) {
+                        if (convertedFiles.take() == END) {
+                            ends++;
+                        }
+                    }
+                }
+                catch (InterruptedException e) {
+                    // Conversion stopped
+                }
+            }
+        }
+
+        /**
+         * Send the end of a stage to the next stage, unless the conversion is stopped
+         * @param queue the queue of the next stage
+         */
+        private void putEnd(BlockingQueue<Item> queue) {
+            if (stopped) {
+                return;
+            }
+            try {
+                queue.put(END);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The result of a conversion : the numbers of files, bars and bytes converted, and the errors
+     */
+    public static final class Report {
+
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong bars = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicLong bytesWritten = new AtomicLong();
+        private final List<FileError> errors = Collections.synchronizedList(new ArrayList<FileError>());
+        private long elapsedTime;
+
+        private Report() {
+        }
+
+        private void addError(Path path, Exception exception) {
+            errors.add(new FileError(path, exception));
+        }
+
+        /**
+         * Get the number of files converted and written
+         * @return the number of files
+         */
+        public long getFiles() {
+            return files.get();
+        }
+
+        /**
+         * Get the number of bars of the files converted
+         * @return the number of bars
+         */
+        public long getBars() {
+            return bars.get();
+        }
+
+        /**
+         * Get the number of bytes read, with the files in error
+         * @return the number of bytes
+         */
+        public long getBytesRead() {
+            return bytesRead.get();
+        }
+
+        /**
+         * Get the number of bytes written
+         * @return the number of bytes
+         */
+        public long getBytesWritten() {
+            return bytesWritten.get();
+        }
+
+        /**
+         * Get the duration of the conversion
+         * @return the duration in nanoseconds
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+
+        public double getFilesPerSecond() {
+            return perSecond(getFiles());
+        }
+
+        public double getBarsPerSecond() {
+            return perSecond(getBars());
+        }
+
+        /**
+         * Get the number of bytes read by second
+         * @return the bytes by second
+         */
+        public double getBytesPerSecond() {
+            return perSecond(getBytesRead());
+        }
+
+        /**
+         * Get the errors, in the order they happened
+         * @return the errors
+         */
+        public List<FileError> getErrors() {
+            synchronized (errors) {
+                return new ArrayList<>(errors);
+            }
+        }
+
+        private double perSecond(long value) {
+            return elapsedTime == 0 ? 0 : value * 1e9 / elapsedTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d files, %d bars, %d bytes read, %d bytes written in %.3f s : %.1f files/s, %.1f bars/s, %.1f bytes/s, %d errors",
+                    getFiles(), getBars(), getBytesRead(), getBytesWritten(), elapsedTime / 1e9,
+                    getFilesPerSecond(), getBarsPerSecond(), getBytesPerSecond(), errors.size());
+        }
+    }
+
+    /**
+     * An error on a file
+     */
+    public static final class FileError {
+
+        private final Path path;
+        private final Exception exception;
+
+        private FileError(Path path, Exception exception) {
+            this.path = path;
+            this.exception = exception;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
+
+        @Override
+        public String toString() {
+            return path + " : " + exception;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 4 || args.length > 5) {
+            System.err.println("Usage : java tablab.PartitionConverter sourceDirectory targetDirectory sourceFormat targetFormat [threads]");
+            System.err.println("Formats : xml, binary (read and write), txt (write only)");
+            System.exit(2);
+        }
+
+        PartitionConverter converter;
+        try {
+            converter = new PartitionConverter(
+                    Format.valueOf(args[2].toUpperCase(Locale.ROOT)),
+                    Format.valueOf(args[3].toUpperCase(Locale.ROOT)));
+            if (args.length == 5) {
+                converter.setThreads(Integer.parseInt(args[4]));
+            }
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        Report report = converter.convert(args[0], args[1]);
+        System.out.println(report);
+        for (FileError error : report.getErrors()) {
+            System.err.println(error);
+        }
+        System.exit(report.getErrors().isEmpty() ? 0 : 1);
+    }
+}
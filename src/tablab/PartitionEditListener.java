@@ -0,0 +1,29 @@
+package tablab;
+
+/**
+ * PartitionEditListener is notified of the modifications of a partition and of its bars.
+ * The listener is called before the modification : the indexes are the indexes before the modification.
+ */
+interface PartitionEditListener {
+
+    /**
+     * Called before the modification of a beat of a bar of the partition (notes or structures)
+     * @param musicBar the modified bar
+     * @param beatNumber the modified beat
+     */
+    void onBeatModified(MusicBar musicBar, int beatNumber);
+
+    /**
+     * Called before the insertion of a bar in the partition
+     * @param index the index of the new bar
+     * @param musicBar the new bar
+     */
+    void onMusicBarAdded(int index, MusicBar musicBar);
+
+    /**
+     * Called before the removal of a bar of the partition
+     * @param index the index of the removed bar
+     * @param musicBar the removed bar
+     */
+    void onMusicBarRemoved(int index, MusicBar musicBar);
+}
@@ -1,36 +1,52 @@
 package tablab;
 
-import org.jdom2.Attribute;
-import org.jdom2.Document;
-import org.jdom2.Element;
 import org.jdom2.JDOMException;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
 
+import javax.xml.stream.XMLStreamException;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class PartitionFileManager {
 
-    private static String SEP = "//";
+    static final String SEP = "//";
+
+    // Size of the buffers of the streams
+    private static final int BUFFER_SIZE = 1 << 16;
 
     // Index title
-    private static String PARTITION = "partition";
-    private static String TITLE = "title";
-    private static String AUTHOR = "author";
-    private static String BARS = "bars";
-    private static String SETTINGS = "settings";
-    private static String NOTES_NUMBER = "notesNumber";
-    private static String NOTES_VALUE = "notes_value";
-    private static String TEMPO = "tempo";
-    private static String LINE_STRUCTURE = "line_struct";
-    private static String BEAT_STRUCTURE = "beat_struct";
-    private static String MUSIC_BAR = "bar";
-    private static String BEAT = "beat";
-    private static String NUMBER = "number";
-    private static String PART = "part";
-    private static String LINE = "line";
+    static final String PARTITION = "partition";
+    static final String TITLE = "title";
+    static final String AUTHOR = "author";
+    static final String BARS = "bars";
+    static final String SETTINGS = "settings";
+    static final String NOTES_NUMBER = "notesNumber";
+    static final String NOTES_VALUE = "notes_value";
+    static final String TEMPO = "tempo";
+    static final String LINE_STRUCTURE = "line_struct";
+    static final String BEAT_STRUCTURE = "beat_struct";
+    static final String MUSIC_BAR = "bar";
+    static final String BEAT = "beat";
+    static final String NUMBER = "number";
+    static final String REPEAT = "repeat";
+    static final String PART = "part";
+    static final String LINE = "line";
+
+    // Binary format
+    static final byte[] BINARY_MAGIC = {'T', 'L', 'A', 'B'};
+    static final int BINARY_VERSION = 2;
+
+    // Number of bars kept in memory by default by a partition read on demand
+    private static final int DEFAULT_CACHE_SIZE = 256;
 
 
     /** Create a xml file and write the music partition
@@ -40,78 +56,54 @@ public class PartitionFileManager {
      * @throws IOException is thrown if problem with the given path
      */
     public static void exportToXml(String path, MusicPartition musicPartition) throws IOException {
-
-        Element racine = getPartition(musicPartition);
-        Document document = new Document(racine);
-
-
-        XMLOutputter xmlOutputter = new XMLOutputter(Format.getPrettyFormat());
-        xmlOutputter.output(document, new FileOutputStream(path));
-
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            exportToXml(channel, musicPartition);
+        }
     }
 
-    /** Return a string with the partition parsed as a xml file
+    /** Write the music partition in a channel, with a buffer
      *
+     * @param channel the channel, not closed by the method
      * @param musicPartition the music partition to write
+     * @throws IOException is thrown if problem while writing
      */
-    public static String exportToXmlString(MusicPartition musicPartition) {
-
-        Element racine = getPartition(musicPartition);
-        Document document = new Document(racine);
-
-        return new XMLOutputter().outputString(document);
+    public static void exportToXml(WritableByteChannel channel, MusicPartition musicPartition) throws IOException {
+        exportToXml(Channels.newOutputStream(channel), musicPartition);
     }
 
-    private static Element getPartition(MusicPartition musicPartition) {
-        Element partition = new Element(PARTITION);
-
-        partition.setAttribute(TITLE, musicPartition.getTitle());
-        partition.setAttribute(AUTHOR, musicPartition.getAuthor());
-
-
-        Element settings = getSettings(musicPartition.getSettings());
-        partition.addContent(settings);
-
-        Element bars = new Element(BARS);
-        for (int i = 1; i <= musicPartition.getMusicBarNumber(); i++) {
-            Element bar = getMusicBar(musicPartition.getMusicBar(i), musicPartition.getSettings());
-            bar.setAttribute(NUMBER, String.valueOf(i+1));
-            bars.addContent(bar);
+    /** Write the music partition in a stream, with a buffer
+     *
+     * @param out the stream, flushed but not closed by the method
+     * @param musicPartition the music partition to write
+     * @throws IOException is thrown if problem while writing
+     */
+    public static void exportToXml(OutputStream out, MusicPartition musicPartition) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            PartitionXmlWriter.write(writer, musicPartition, true);
         }
-        partition.addContent(bars);
-
-        return partition;
-    }
-
-    private static Element getSettings(PartitionSettings partitionSettings) {
-        Element settings = new Element(SETTINGS);
-
-        settings.setAttribute(NOTES_NUMBER, String.valueOf(partitionSettings.notesNumber));
-        settings.setAttribute(NOTES_VALUE, String.valueOf(partitionSettings.notesValue));
-        settings.setAttribute(TEMPO, String.valueOf(partitionSettings.tempo));
-
-        Element bs = getBeatStructure(partitionSettings.beatStructure);
-        settings.addContent(bs);
-
-        Element ls = getLineStructure(partitionSettings.lineStructure);
-        settings.addContent(ls);
-
-        return settings;
-    }
-
-    private static Element getBeatStructure(BeatStructure beatStructure) {
-        Element bs = new Element(BEAT_STRUCTURE);
-        bs.addContent(getBeatStructureAsString(beatStructure));
-        return bs;
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        writer.flush();
     }
 
-    private static Element getLineStructure(LineStructure lineStructure) {
-        Element ls = new Element(LINE_STRUCTURE);
-        ls.addContent(getLineStructureAsString(lineStructure));
-        return ls;
+    /** Return a string with the partition parsed as a xml file
+     *
+     * @param musicPartition the music partition to write
+     */
+    public static String exportToXmlString(MusicPartition musicPartition) {
+        StringWriter writer = new StringWriter();
+        try {
+            PartitionXmlWriter.write(writer, musicPartition, false);
+        }
+        catch (XMLStreamException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
     }
 
-    private static String getBeatStructureAsString(BeatStructure beatStructure) {
+    static String getBeatStructureAsString(BeatStructure beatStructure) {
         StringBuilder str = new StringBuilder();
         for (int i = 0; i < beatStructure.size(); i++) {
             if (i > 0)
@@ -121,7 +113,7 @@ public class PartitionFileManager {
         return String.valueOf(str);
     }
 
-    private static String getLineStructureAsString(LineStructure lineStructure) {
+    static String getLineStructureAsString(LineStructure lineStructure) {
         StringBuilder str = new StringBuilder();
         for (int i = 0; i < lineStructure.size(); i++) {
             if (i > 0)
@@ -132,116 +124,125 @@ public class PartitionFileManager {
     }
 
 
-    private static Element getMusicBar(MusicBar musicBar, PartitionSettings partitionSettings) {
-        Element bar = new Element(MUSIC_BAR);
-
-        for (int beat = 1; beat <= partitionSettings.notesNumber; beat++) {
-            Element b = new Element(BEAT);
-            b.setAttribute(NUMBER, String.valueOf(beat));
-
-            if (musicBar.hasSpecialBeatStructure(beat)) {
-                b.setAttribute(BEAT_STRUCTURE, getBeatStructureAsString(musicBar.getSpecialBeatStructure(beat)));
-            }
-
-            if (musicBar.hasSpecialLineStructure(beat)) {
-                b.setAttribute(LINE_STRUCTURE, getLineStructureAsString(musicBar.getSpecialLineStructure(beat)));
-            }
-
-            for (String lineType : musicBar.getLineStructure(beat)) {
-                Element line = new Element(LINE);
-                line.setAttribute(PART, lineType);
-
-                line.addContent(String.valueOf(musicBar.getCompressedNotes(lineType, beat)));
-                b.addContent(line);
-            }
-            bar.addContent(b);
-        }
-
-        return bar;
-    }
-
     /** Read a music partition from a xml file
      *
      * @param path the path of the partition
      * @return A music partition
-     * @throws JDOMException is thrown if problem with the given path
+     * @throws JDOMException is thrown if the file is not a correct partition
      * @throws IOException is thrown if problem with the given path
      */
     public static MusicPartition importFromXml(String path) throws JDOMException, IOException {
-        SAXBuilder sxb = new SAXBuilder();
-        Document document = sxb.build(new File(path));
-
-        Element racine = document.getRootElement();
-        return createPartition(racine);
-    }
-
-    public static MusicPartition importFromXmlString(String string) throws JDOMException, IOException {
-        File file = new File("temp.xml");
-        FileWriter writer = new FileWriter(file);
-
-        writer.write(string);
-        writer.flush();
-        writer.close();
-
-        MusicPartition partition = importFromXmlFile(file);
-        file.delete();
-
-        return partition;
+        return importFromXmlFile(new File(path));
     }
 
-    public static MusicPartition importFromXmlFile(File file) throws JDOMException, IOException {
-        SAXBuilder sxb = new SAXBuilder();
-        Document document = sxb.build(file);
-
-        return createPartition(document.getRootElement());
+    /** Read a music partition from a xml file, bar by bar.
+     * The listener is called each time a bar is read, before the end of the file.
+     *
+     * @param path the path of the partition
+     * @param listener the listener called for each bar, can be null
+     * @return A music partition
+     * @throws XMLStreamException is thrown if the file is not a correct partition
+     * @throws IOException is thrown if problem with the given path
+     */
+    public static MusicPartition importFromXml(String path, MusicBarListener listener) throws XMLStreamException, IOException {
+        return importFromXml(path, listener, null);
     }
 
-    private static MusicPartition createPartition(Element partition) {
-
-        String title = partition.getAttributeValue(TITLE);
-        String author = partition.getAttributeValue(AUTHOR);
-        PartitionSettings partitionSettings = createSettings(partition.getChild(SETTINGS));
-
-        MusicPartition musicPartition = new MusicPartition(title, author, partitionSettings);
-
-        List<Element> bars = partition.getChild(BARS).getChildren(MUSIC_BAR);
-        Collections.sort(bars, new Comparator<Element>() {
-            @Override
-            public int compare(Element o1, Element o2) {
-                return Integer.parseInt(o1.getAttributeValue(NUMBER)) - Integer.parseInt(o2.getAttributeValue(NUMBER));
-            }
-        });
-
-        for (Element bar : bars) {
-            musicPartition.addMusicBar(createMusicBar(bar, partitionSettings));
+    /** Read a music partition from a xml file, the bars are built in parallel by a pool.
+     * The file is read by the calling thread, the bars are added in the partition in the order of the file
+     * and the listener is called by the calling thread.
+     *
+     * @param path the path of the partition
+     * @param listener the listener called for each bar, can be null
+     * @param pool the pool building the bars (for example ForkJoinPool.commonPool()), null to build the bars in the calling thread
+     * @return A music partition
+     * @throws XMLStreamException is thrown if the file is not a correct partition
+     * @throws IOException is thrown if problem with the given path
+     */
+    public static MusicPartition importFromXml(String path, MusicBarListener listener, ForkJoinPool pool) throws XMLStreamException, IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE)) {
+            return PartitionXmlReader.read(in, listener, pool);
         }
+    }
 
-        return musicPartition;
+    /** Read a music partition from a stream of characters, bar by bar.
+     *
+     * @param reader the stream of the partition, not closed by the method
+     * @param listener the listener called for each bar, can be null
+     * @return A music partition
+     * @throws XMLStreamException is thrown if the stream is not a correct partition
+     */
+    public static MusicPartition importFromXml(Reader reader, MusicBarListener listener) throws XMLStreamException {
+        return PartitionXmlReader.read(reader, listener);
     }
 
-    private static PartitionSettings createSettings(Element settings) {
-        PartitionSettings partitionSettings = new PartitionSettings();
-        partitionSettings.notesNumber = Integer.parseInt(settings.getAttributeValue(NOTES_NUMBER));
-        partitionSettings.notesValue = Integer.parseInt(settings.getAttributeValue(NOTES_VALUE));
-        partitionSettings.tempo = Float.parseFloat(settings.getAttributeValue(TEMPO));
+    /** Read a music partition from a stream of bytes, bar by bar.
+     * The encoding is given by the xml declaration.
+     *
+     * @param in the stream of the partition, not closed by the method
+     * @param listener the listener called for each bar, can be null
+     * @return A music partition
+     * @throws XMLStreamException is thrown if the stream is not a correct partition
+     */
+    public static MusicPartition importFromXml(InputStream in, MusicBarListener listener) throws XMLStreamException {
+        return PartitionXmlReader.read(in, listener);
+    }
 
-        partitionSettings.lineStructure = createLineStructure(settings.getChild(LINE_STRUCTURE));
-        partitionSettings.beatStructure = createBeatStructure(settings.getChild(BEAT_STRUCTURE));
+    /** Read a music partition from a stream of bytes, the bars are built in parallel by a pool.
+     *
+     * @param in the stream of the partition, not closed by the method
+     * @param listener the listener called for each bar, can be null
+     * @param pool the pool building the bars, null to build the bars in the calling thread
+     * @return A music partition
+     * @throws XMLStreamException is thrown if the stream is not a correct partition
+     * @see #importFromXml(String, MusicBarListener, ForkJoinPool)
+     */
+    public static MusicPartition importFromXml(InputStream in, MusicBarListener listener, ForkJoinPool pool) throws XMLStreamException {
+        return PartitionXmlReader.read(in, listener, pool);
+    }
 
-        return partitionSettings;
+    /** Read a music partition directly from the bytes of a buffer (heap, direct or mapped), without copy of the content.
+     * The bytes between the position and the limit are read, the position of the buffer is not modified.
+     *
+     * @param buffer the bytes of the partition
+     * @param listener the listener called for each bar, can be null
+     * @return A music partition
+     * @throws XMLStreamException is thrown if the bytes are not a correct partition
+     */
+    public static MusicPartition importFromXml(ByteBuffer buffer, MusicBarListener listener) throws XMLStreamException {
+        return PartitionXmlReader.read(new ByteBufferInputStream(buffer.duplicate()), listener);
     }
 
-    private static LineStructure createLineStructure(Element structure) {
-        String line = structure.getContent(0).getValue();
-        return new LineStructure(Arrays.asList(line.split(SEP)));
+    /** Read a music partition from a xml string, in memory.
+     * Can be called by several threads at the same time.
+     *
+     * @param string the xml of the partition
+     * @return A music partition
+     * @throws JDOMException is thrown if the string is not a correct partition
+     * @throws IOException never thrown, kept for the previous callers
+     */
+    public static MusicPartition importFromXmlString(CharSequence string) throws JDOMException, IOException {
+        Reader reader = string instanceof String
+                ? new StringReader((String) string)
+                : new CharBufferReader(string instanceof CharBuffer ? ((CharBuffer) string).duplicate() : CharBuffer.wrap(string));
+        try {
+            return PartitionXmlReader.read(reader, null);
+        }
+        catch (XMLStreamException e) {
+            throw new JDOMException(e.getMessage(), e);
+        }
     }
 
-    private static BeatStructure createBeatStructure(Element structure) {
-        String beat = structure.getContent(0).getValue();
-        return createBeatStructureFromString(beat);
+    public static MusicPartition importFromXmlFile(File file) throws JDOMException, IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            return PartitionXmlReader.read(in, null);
+        }
+        catch (XMLStreamException e) {
+            throw new JDOMException(e.getMessage(), e);
+        }
     }
 
-    private static BeatStructure createBeatStructureFromString(String structure) {
+    static BeatStructure createBeatStructureFromString(String structure) {
         List<BeatStructure.NoteTime> beatStructure = new ArrayList<>();
         for (String s : structure.split(SEP)) {
             beatStructure.add(BeatStructure.NoteTime.valueOf(s));
@@ -249,38 +250,96 @@ public class PartitionFileManager {
         return new BeatStructure(beatStructure);
     }
 
-    private static LineStructure createLineStructureFromString(String structure) {
+    static LineStructure createLineStructureFromString(String structure) {
         return new LineStructure(Arrays.asList(structure.split(SEP)));
     }
 
-    private static MusicBar createMusicBar(Element bar, PartitionSettings partitionSettings) {
-        MusicBar musicBar = new MusicBar(partitionSettings);
+    /** Create a binary file and write the music partition
+     * The binary format is much smaller and faster to read than the xml
+     *
+     * @param path the path (path+file name) of the binary file to create
+     * @param musicPartition the music partition to write
+     * @throws IOException is thrown if problem with the given path
+     */
+    public static void exportToBinary(String path, MusicPartition musicPartition) throws IOException {
+        try (OutputStream out = new FileOutputStream(path)) {
+            exportToBinary(out, musicPartition);
+        }
+    }
 
-        List<Element> beats = bar.getChildren(BEAT);
-        Collections.sort(beats, new Comparator<Element>() {
-            @Override
-            public int compare(Element o1, Element o2) {
-                return Integer.parseInt(o1.getAttributeValue(NUMBER)) - Integer.parseInt(o2.getAttributeValue(NUMBER));
-            }
-        });
-        for (int i = 0; i < beats.size(); i++) {
-            Element beat = beats.get(i);
-            Attribute beatAtt = beat.getAttribute(BEAT_STRUCTURE);
-            if (beatAtt != null) {
-                musicBar.setSpecialBeatStructure(createBeatStructureFromString(beatAtt.getValue()), i+1);
-            }
-            Attribute lineAtt = beat.getAttribute(LINE_STRUCTURE);
-            if (lineAtt != null) {
-                musicBar.setSpecialLineStructure(createLineStructureFromString(lineAtt.getValue()), i+1);
-            }
+    /** Write the music partition in a stream, in the binary format
+     *
+     * @param out the stream, flushed but not closed by the method
+     * @param musicPartition the music partition to write
+     * @throws IOException is thrown if problem while writing
+     */
+    public static void exportToBinary(OutputStream out, MusicPartition musicPartition) throws IOException {
+        PartitionBinaryWriter.write(out, musicPartition);
+        out.flush();
+    }
 
-            for (Element line : beat.getChildren(LINE)) {
-                long notes = Long.parseLong(line.getContent(0).getValue());
-                musicBar.setCompressedNotes(line.getAttributeValue(PART), i+1, notes);
-            }
+    /** Read a music partition from a binary file
+     *
+     * @param path the path of the partition
+     * @return A music partition
+     * @throws IOException is thrown if problem with the given path or if the file is not a correct partition
+     */
+    public static MusicPartition importFromBinary(String path) throws IOException {
+        return importFromBinary(ByteBuffer.wrap(Files.readAllBytes(Paths.get(path))));
+    }
+
+    /** Read a music partition from a stream in the binary format
+     *
+     * @param in the stream, read until the end but not closed by the method
+     * @return A music partition
+     * @throws IOException is thrown if problem while reading or if the stream is not a correct partition
+     */
+    public static MusicPartition importFromBinary(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
         }
+        return importFromBinary(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    /** Read a music partition directly from the bytes of a buffer, in the binary format
+     * The bytes between the position and the limit are read, the position of the buffer is not modified.
+     *
+     * @param buffer the bytes of the partition
+     * @return A music partition
+     * @throws IOException is thrown if the bytes are not a correct partition
+     */
+    public static MusicPartition importFromBinary(ByteBuffer buffer) throws IOException {
+        return PartitionBinaryReader.read(buffer);
+    }
+
+    /** Open a binary file as a partition reading its bars on demand
+     * The file is mapped in memory : only the header is read at the opening, each bar is decoded when it is used.
+     * The file must not be modified while the partition is used.
+     *
+     * @param path the path of the partition
+     * @return A music partition
+     * @throws IOException is thrown if problem with the given path or if the file is not a correct partition
+     * @see MusicPartition#isLazyLoading()
+     */
+    public static MusicPartition openBinary(String path) throws IOException {
+        return openBinary(path, DEFAULT_CACHE_SIZE);
+    }
 
-        return musicBar;
+    /** Open a binary file as a partition reading its bars on demand
+     *
+     * @param path the path of the partition
+     * @param cacheSize the number of decoded bars kept in memory
+     * @return A music partition
+     * @throws IOException is thrown if problem with the given path or if the file is not a correct partition
+     */
+    public static MusicPartition openBinary(String path, int cacheSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MusicPartition(new PartitionBinaryReader(buffer), cacheSize);
+        }
     }
 
     /** write the partition into a txt file
@@ -290,8 +349,100 @@ public class PartitionFileManager {
      * @throws FileNotFoundException if error with creation or print of the file
      */
     public static void exportToTxt(String path, MusicPartition musicPartition) throws FileNotFoundException {
+        exportToTxt(path, musicPartition, 0);
+    }
+
+    /** write the partition into a txt file, the tab is written directly in the file
+     *
+     * @param path the path of the partition
+     * @param musicPartition the partition
+     * @param barsPerLine the number of bars on each line of the tab, 0 to write all the bars on the same line
+     * @throws FileNotFoundException if error with creation or print of the file
+     */
+    public static void exportToTxt(String path, MusicPartition musicPartition, int barsPerLine) throws FileNotFoundException {
+        PartitionTabRenderer renderer = new PartitionTabRenderer(musicPartition);
+        renderer.setBarsPerLine(barsPerLine);
         PrintWriter writer = new PrintWriter(path);
-        writer.print(musicPartition.toString());
-        writer.close();
+        try {
+            renderer.render(writer);
+        }
+        catch (IOException e) {
+            // Not thrown by a PrintWriter
+            throw new IllegalStateException(e);
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * A stream reading the bytes of a buffer, without copy of the buffer
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * A stream reading the characters of a buffer, without copy of the buffer
+     */
+    private static final class CharBufferReader extends Reader {
+
+        private final CharBuffer buffer;
+
+        CharBufferReader(CharBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read(char[] chars, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(chars, off, n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,290 @@
+package tablab;
+
+import java.util.*;
+
+/**
+ * PartitionHistory records the modifications of a partition, to undo and redo them.
+ *
+ * The modifications are grouped in edits (closed by endEdit) : undo and redo work edit by edit.
+ * An edit keeps the modified beats as they were before the first modification of the edit, and the added and removed bars
+ * (a removed bar is kept as a copy sharing its notes) : the cost of an edit depends on the number of modified beats,
+ * not on the size of the partition.
+ * A new modification after an undo removes the edits to redo.
+ */
+public class PartitionHistory {
+
+    private static final int DEFAULT_LIMIT = 100;
+
+    private final MusicPartition musicPartition;
+    private final int limit;
+    private final EditRecorder recorder = new EditRecorder();
+
+    // The edits to undo and to redo, the last one first
+    private final Deque<Edit> undoEdits = new ArrayDeque<>();
+    private final Deque<Edit> redoEdits = new ArrayDeque<>();
+
+    // The edit in progress
+    private Edit currentEdit = new Edit();
+
+    // The edit receiving the modifications done by an undo or a redo, null otherwise
+    private Edit replayEdit = null;
+
+    /**
+     * Start recording the modifications of a partition
+     * @param musicPartition the partition
+     */
+    public PartitionHistory(MusicPartition musicPartition) {
+        this(musicPartition, DEFAULT_LIMIT);
+    }
+
+    /**
+     * Start recording the modifications of a partition
+     * Reads all the bars if the bars are read on demand
+     * @param musicPartition the partition
+     * @param limit the maximum number of edits kept to undo
+     */
+    public PartitionHistory(MusicPartition musicPartition, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The limit must be positive : " + limit);
+        }
+        this.musicPartition = musicPartition;
+        this.limit = limit;
+        musicPartition.addEditListener(recorder);
+    }
+
+    /**
+     * Get the partition
+     * @return the partition
+     */
+    public MusicPartition getMusicPartition() {
+        return musicPartition;
+    }
+
+    /**
+     * End the current edit : the next modifications are in a new edit
+     */
+    public void endEdit() {
+        if (!currentEdit.isEmpty()) {
+            undoEdits.push(currentEdit);
+            if (undoEdits.size() > limit) {
+                undoEdits.removeLast();
+            }
+            currentEdit = new Edit();
+        }
+    }
+
+    /**
+     * Check if there is an edit to undo
+     * @return true if undo is possible
+     */
+    public boolean canUndo() {
+        return !currentEdit.isEmpty() || !undoEdits.isEmpty();
+    }
+
+    /**
+     * Check if there is an edit to redo
+     * @return true if redo is possible
+     */
+    public boolean canRedo() {
+        return currentEdit.isEmpty() && !redoEdits.isEmpty();
+    }
+
+    /**
+     * Undo the last edit, the current edit is ended before
+     * @return true if an edit is undone
+     */
+    public boolean undo() {
+        endEdit();
+        if (undoEdits.isEmpty()) {
+            return false;
+        }
+        redoEdits.push(replay(undoEdits.pop()));
+        return true;
+    }
+
+    /**
+     * Redo the last undone edit
+     * @return true if an edit is redone
+     */
+    public boolean redo() {
+        endEdit();
+        if (redoEdits.isEmpty()) {
+            return false;
+        }
+        undoEdits.push(replay(redoEdits.pop()));
+        return true;
+    }
+
+    /**
+     * Stop recording the modifications of the partition
+     */
+    public void close() {
+        musicPartition.removeEditListener(recorder);
+    }
+
+    /**
+     * Undo an edit
+     * @param edit the edit to undo
+     * @return the edit undoing the undo
+     */
+    private Edit replay(Edit edit) {
+        replayEdit = new Edit();
+        try {
+            edit.undo();
+            return replayEdit;
+        }
+        finally {
+            replayEdit = null;
+        }
+    }
+
+    /**
+     * Get the edit receiving a new modification
+     * @return the replay edit during an undo or a redo, the current edit otherwise
+     */
+    private Edit getRecordingEdit() {
+        if (replayEdit != null) {
+            return replayEdit;
+        }
+        redoEdits.clear();
+        return currentEdit;
+    }
+
+    /**
+     * A step of an edit, which can be undone
+     */
+    private interface Step {
+        void undo();
+    }
+
+    /**
+     * The steps of an edit
+     */
+    private static final class Edit {
+
+        private final List<Step> steps = new ArrayList<>();
+
+        // The beats already saved in the edit, for each bar
+        private final Map<MusicBar, BitSet> savedBeats = new IdentityHashMap<>();
+
+        boolean isEmpty() {
+            return steps.isEmpty();
+        }
+
+        void addBeat(MusicBar musicBar, int beatNumber) {
+            BitSet beats = savedBeats.get(musicBar);
+            if (beats == null) {
+                beats = new BitSet();
+                savedBeats.put(musicBar, beats);
+            }
+            if (!beats.get(beatNumber)) {
+                beats.set(beatNumber);
+                steps.add(new BeatStep(musicBar, beatNumber));
+            }
+        }
+
+        void add(Step step) {
+            steps.add(step);
+        }
+
+        void undo() {
+            for (int i = steps.size() - 1; i >= 0; i--) {
+                steps.get(i).undo();
+            }
+        }
+    }
+
+    /**
+     * A beat of a bar before its modification
+     */
+    private static final class BeatStep implements Step {
+
+        private final MusicBar musicBar;
+        private final int beatNumber;
+        private final BeatStructure specialBeatStructure;
+        private final LineStructure specialLineStructure;
+        private final LineStructure lineStructure;
+        private final long[] notes;
+
+        BeatStep(MusicBar musicBar, int beatNumber) {
+            this.musicBar = musicBar;
+            this.beatNumber = beatNumber;
+            this.specialBeatStructure = musicBar.getSpecialBeatStructure(beatNumber);
+            this.specialLineStructure = musicBar.getSpecialLineStructure(beatNumber);
+            this.lineStructure = musicBar.getLineStructure(beatNumber);
+            this.notes = new long[lineStructure.size()];
+            for (int i = 0; i < notes.length; i++) {
+                notes[i] = musicBar.getCompressedNotes(lineStructure.get(i), beatNumber);
+            }
+        }
+
+        @Override
+        public void undo() {
+            musicBar.setSpecialBeatStructure(specialBeatStructure, beatNumber);
+            musicBar.setSpecialLineStructure(specialLineStructure, beatNumber);
+            for (int i = 0; i < notes.length; i++) {
+                musicBar.setCompressedNotes(lineStructure.get(i), beatNumber, notes[i]);
+            }
+        }
+    }
+
+    /**
+     * A bar added in the partition
+     */
+    private final class AddStep implements Step {
+
+        private final int index;
+
+        AddStep(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void undo() {
+            musicPartition.removeMusicBar(index);
+        }
+    }
+
+    /**
+     * A bar removed from the partition, with its content at the removal
+     */
+    private final class RemoveStep implements Step {
+
+        private final int index;
+        private final MusicBar musicBar;
+        private final MusicBar content;
+
+        RemoveStep(int index, MusicBar musicBar) {
+            this.index = index;
+            this.musicBar = musicBar;
+            this.content = musicBar.copyMusicBar();
+        }
+
+        @Override
+        public void undo() {
+            musicBar.copyFrom(content);
+            musicPartition.addMusicBar(index, musicBar);
+        }
+    }
+
+    /**
+     * Record the modifications of the partition in the edits
+     */
+    private final class EditRecorder implements PartitionEditListener {
+
+        @Override
+        public void onBeatModified(MusicBar musicBar, int beatNumber) {
+            getRecordingEdit().addBeat(musicBar, beatNumber);
+        }
+
+        @Override
+        public void onMusicBarAdded(int index, MusicBar musicBar) {
+            getRecordingEdit().add(new AddStep(index));
+        }
+
+        @Override
+        public void onMusicBarRemoved(int index, MusicBar musicBar) {
+            getRecordingEdit().add(new RemoveStep(index, musicBar));
+        }
+    }
+}
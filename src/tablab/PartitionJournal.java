@@ -0,0 +1,554 @@
+package tablab;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+import static tablab.PartitionFileManager.*;
+
+/**
+ * PartitionJournal saves the modifications of a partition without writing the whole partition.
+ *
+ * The partition file (binary format) is a snapshot of the partition, and the journal (the partition file + ".journal")
+ * contains the modifications done since the snapshot : the modified beats (notes and structures), the added and removed bars.
+ * Saving only appends the modifications at the end of the journal.
+ * The compaction writes a new snapshot in a background thread and removes the old modifications from the journal.
+ *
+ * Each record of the journal has a length, a checksum and a sequence number.
+ * A checkpoint record gives the sequence number and the checksum of a snapshot : at the opening, the last checkpoint
+ * matching the partition file gives the records to replay. An incomplete record at the end (crash while saving) is ignored.
+ */
+public class PartitionJournal implements Closeable {
+
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    // Types of the records
+    private static final byte CHECKPOINT = 1;
+    private static final byte BEAT = 2;
+    private static final byte ADD_BAR = 3;
+    private static final byte REMOVE_BAR = 4;
+
+    private final Path path;
+    private final Path journalPath;
+    private final MusicPartition musicPartition;
+    private final EditRecorder recorder = new EditRecorder();
+
+    private FileChannel journal;
+    private long nextSequence;
+
+    // The beats modified since the last record, for each bar index
+    // The indexes do not change until the next added or removed bar, which records the modified beats before
+    private final Map<Integer, BitSet> modifiedBeats = new TreeMap<>();
+
+    // The index of each bar, computed again after an added or removed bar
+    private final Map<MusicBar, Integer> barIndexes = new IdentityHashMap<>();
+    private boolean barIndexesValid = false;
+
+    // The records not yet written in the journal
+    private PartitionBinaryWriter.Buffer pendingRecords = new PartitionBinaryWriter.Buffer();
+
+    // The thread of the compactions, created with the first compaction
+    private ExecutorService compactor = null;
+
+    private PartitionJournal(Path path, MusicPartition musicPartition) {
+        this.path = path;
+        this.journalPath = path.resolveSibling(path.getFileName() + JOURNAL_EXTENSION);
+        this.musicPartition = musicPartition;
+    }
+
+    /**
+     * Save a partition in a new snapshot and start a new journal
+     * The previous journal of the file is removed
+     * @param path the path of the partition file
+     * @param musicPartition the partition, its modifications are recorded until the journal is closed
+     * @return the journal of the partition
+     * @throws IOException if error while writing
+     */
+    public static PartitionJournal create(String path, MusicPartition musicPartition) throws IOException {
+        PartitionJournal partitionJournal = new PartitionJournal(Paths.get(path), musicPartition);
+        Files.deleteIfExists(partitionJournal.journalPath);
+        Snapshot snapshot = partitionJournal.writeSnapshot(musicPartition);
+        move(partitionJournal.temporary(partitionJournal.path), partitionJournal.path);
+
+        partitionJournal.nextSequence = 1;
+        partitionJournal.openJournal(0);
+        partitionJournal.writeCheckpoint(0, snapshot);
+        musicPartition.addEditListener(partitionJournal.recorder);
+        return partitionJournal;
+    }
+
+    /**
+     * Read a partition : read the snapshot and replay the modifications of the journal
+     * @param path the path of the partition file
+     * @return the journal of the partition, with the partition
+     * @throws IOException if error while reading, or if the journal does not match the partition file
+     */
+    public static PartitionJournal open(String path) throws IOException {
+        byte[] content = Files.readAllBytes(Paths.get(path));
+        PartitionJournal partitionJournal = new PartitionJournal(Paths.get(path), PartitionFileManager.importFromBinary(ByteBuffer.wrap(content)));
+        partitionJournal.replay(new Snapshot(content));
+        partitionJournal.musicPartition.addEditListener(partitionJournal.recorder);
+        return partitionJournal;
+    }
+
+    /**
+     * Get the partition
+     * @return the partition
+     */
+    public MusicPartition getMusicPartition() {
+        return musicPartition;
+    }
+
+    /**
+     * Write the modifications since the last save at the end of the journal
+     * The cost depends on the number of modifications, not on the size of the partition
+     * @throws IOException if error while writing
+     */
+    public synchronized void save() throws IOException {
+        recordModifiedBeats();
+        if (pendingRecords.size > 0) {
+            write(journal, ByteBuffer.wrap(pendingRecords.bytes, 0, pendingRecords.size));
+            journal.force(false);
+            pendingRecords = new PartitionBinaryWriter.Buffer();
+        }
+    }
+
+    /**
+     * Save, then write a new snapshot and remove the old modifications from the journal, in a background thread
+     * The partition can be modified and saved during the compaction
+     * @return the end of the compaction
+     * @throws IOException if error while saving
+     */
+    public synchronized Future<?> compact() throws IOException {
+        save();
+        final long sequence = nextSequence - 1;
+        final MusicPartition copy = musicPartition.copyMusicPartition();
+
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PartitionJournal-compaction");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return compactor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                compact(copy, sequence);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Save, wait for the compaction and stop recording the modifications of the partition
+     * @throws IOException if error while saving
+     */
+    @Override
+    public void close() throws IOException {
+        ExecutorService currentCompactor;
+        synchronized (this) {
+            musicPartition.removeEditListener(recorder);
+            save();
+            currentCompactor = compactor;
+        }
+        if (currentCompactor != null) {
+            currentCompactor.shutdown();
+            try {
+                currentCompactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Write a new snapshot, then keep in the journal only the records after the snapshot
+     * @param copy a copy of the partition
+     * @param sequence the sequence number of the last record in the copy
+     * @throws IOException if error while writing
+     */
+    private void compact(MusicPartition copy, long sequence) throws IOException {
+        Snapshot snapshot = writeSnapshot(copy);
+
+        // From the checkpoint, the new snapshot can be used with the journal
+        synchronized (this) {
+            save();
+            writeCheckpoint(sequence, snapshot);
+        }
+        move(temporary(path), path);
+
+        synchronized (this) {
+            save();
+            ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(journalPath));
+            PartitionBinaryWriter.Buffer kept = new PartitionBinaryWriter.Buffer();
+            for (Record record : readRecords(content)) {
+                boolean checkpoint = record.type == CHECKPOINT && record.sequence == sequence && snapshot.matches(record.payload.duplicate());
+                if (checkpoint || (record.type != CHECKPOINT && record.sequence > sequence)) {
+                    kept.writeBytes(content.array(), record.start, record.end - record.start);
+                }
+            }
+
+            Path temporaryJournal = temporary(journalPath);
+            try (FileChannel channel = FileChannel.open(temporaryJournal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                write(channel, ByteBuffer.wrap(kept.bytes, 0, kept.size));
+                channel.force(true);
+            }
+            journal.close();
+            move(temporaryJournal, journalPath);
+            openJournal(kept.size);
+        }
+    }
+
+    /**
+     * Read the journal and replay the records after the snapshot
+     * @param snapshot the snapshot read
+     * @throws IOException if error while reading, or if the journal does not match the snapshot
+     */
+    private void replay(Snapshot snapshot) throws IOException {
+        ByteBuffer content = ByteBuffer.wrap(Files.exists(journalPath) ? Files.readAllBytes(journalPath) : new byte[0]);
+        List<Record> records = readRecords(content);
+
+        long base = -1;
+        long lastSequence = 0;
+        for (Record record : records) {
+            if (record.type == CHECKPOINT && snapshot.matches(record.payload.duplicate())) {
+                base = record.sequence;
+            }
+            lastSequence = Math.max(lastSequence, record.sequence);
+        }
+        if (base < 0 && !records.isEmpty()) {
+            throw new IOException("The journal " + journalPath + " does not match the partition");
+        }
+
+        Map<String, BeatStructure> beatStructures = new HashMap<>();
+        Map<String, LineStructure> lineStructures = new HashMap<>();
+        try {
+            for (Record record : records) {
+                if (record.type != CHECKPOINT && record.sequence > base) {
+                    apply(record, beatStructures, lineStructures);
+                }
+            }
+        }
+        catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Incorrect record in the journal " + journalPath, e);
+        }
+
+        nextSequence = lastSequence + 1;
+        int end = records.isEmpty() ? 0 : records.get(records.size() - 1).end;
+        openJournal(end);
+        if (records.isEmpty()) {
+            writeCheckpoint(0, snapshot);
+        }
+    }
+
+    private void apply(Record record, Map<String, BeatStructure> beatStructures, Map<String, LineStructure> lineStructures) throws IOException {
+        ByteBuffer in = record.payload;
+        int index = PartitionBinaryReader.readCount(in);
+        switch (record.type) {
+            case BEAT:
+                readBeat(in, musicPartition.getMusicBar(index), PartitionBinaryReader.readCount(in), beatStructures, lineStructures);
+                break;
+            case ADD_BAR:
+                MusicBar musicBar = new MusicBar(musicPartition.getSettings());
+                for (int beat = 1; beat <= musicPartition.getSettings().notesNumber; beat++) {
+                    readBeat(in, musicBar, beat, beatStructures, lineStructures);
+                }
+                musicPartition.addMusicBar(index, musicBar);
+                break;
+            case REMOVE_BAR:
+                musicPartition.removeMusicBar(index);
+                break;
+            default:
+                throw new IOException("Unknown record in the journal : " + record.type);
+        }
+    }
+
+    /**
+     * Record the modified beats : only the modified bars are read
+     */
+    private void recordModifiedBeats() {
+        for (Map.Entry<Integer, BitSet> entry : modifiedBeats.entrySet()) {
+            int index = entry.getKey();
+            MusicBar musicBar = musicPartition.getMusicBar(index);
+            BitSet beats = entry.getValue();
+            for (int beat = beats.nextSetBit(1); beat >= 0; beat = beats.nextSetBit(beat + 1)) {
+                PartitionBinaryWriter.Buffer record = startRecord(BEAT, nextSequence++);
+                record.writeVarint(index);
+                record.writeVarint(beat);
+                writeBeat(record, musicBar, beat);
+                endRecord(record);
+            }
+        }
+        modifiedBeats.clear();
+    }
+
+    /**
+     * Get the index of a bar of the partition
+     * The indexes are computed once after each added or removed bar
+     * @param musicBar the bar
+     * @return the index of the bar, null if the bar is not in the partition
+     */
+    private Integer getIndex(MusicBar musicBar) {
+        if (!barIndexesValid) {
+            barIndexes.clear();
+            int index = 1;
+            for (MusicBar partitionMusicBar : musicPartition) {
+                barIndexes.put(partitionMusicBar, index++);
+            }
+            barIndexesValid = true;
+        }
+        return barIndexes.get(musicBar);
+    }
+
+    private PartitionBinaryWriter.Buffer startRecord(byte type, long sequence) {
+        PartitionBinaryWriter.Buffer record = new PartitionBinaryWriter.Buffer();
+        record.writeByte(type);
+        record.writeVarint(sequence);
+        return record;
+    }
+
+    /**
+     * Add a record in the pending records, with its length and its checksum
+     * @param record the content of the record
+     */
+    private void endRecord(PartitionBinaryWriter.Buffer record) {
+        CRC32 crc = new CRC32();
+        crc.update(record.bytes, 0, record.size);
+        pendingRecords.writeInt(record.size);
+        pendingRecords.writeInt((int) crc.getValue());
+        pendingRecords.writeBytes(record.bytes, 0, record.size);
+    }
+
+    private void writeCheckpoint(long sequence, Snapshot snapshot) throws IOException {
+        PartitionBinaryWriter.Buffer record = startRecord(CHECKPOINT, sequence);
+        record.writeVarint(snapshot.length);
+        record.writeInt(snapshot.crc);
+        endRecord(record);
+        save();
+    }
+
+    private static void writeBeat(PartitionBinaryWriter.Buffer out, MusicBar musicBar, int beat) {
+        out.writeNullableString(musicBar.hasSpecialBeatStructure(beat) ? getBeatStructureAsString(musicBar.getSpecialBeatStructure(beat)) : null);
+        out.writeNullableString(musicBar.hasSpecialLineStructure(beat) ? getLineStructureAsString(musicBar.getSpecialLineStructure(beat)) : null);
+        LineStructure lineStructure = musicBar.getLineStructure(beat);
+        for (int i = 0; i < lineStructure.size(); i++) {
+            out.writeVarint(musicBar.getCompressedNotes(lineStructure.get(i), beat));
+        }
+    }
+
+    private static void readBeat(ByteBuffer in, MusicBar musicBar, int beat,
+                                 Map<String, BeatStructure> beatStructures, Map<String, LineStructure> lineStructures) throws IOException {
+        String beatStructure = PartitionBinaryReader.readNullableString(in);
+        String lineStructure = PartitionBinaryReader.readNullableString(in);
+        if (beatStructure != null && !beatStructures.containsKey(beatStructure)) {
+            beatStructures.put(beatStructure, createBeatStructureFromString(beatStructure));
+        }
+        if (lineStructure != null && !lineStructures.containsKey(lineStructure)) {
+            lineStructures.put(lineStructure, createLineStructureFromString(lineStructure));
+        }
+        musicBar.setSpecialBeatStructure(beatStructure == null ? null : beatStructures.get(beatStructure), beat);
+        musicBar.setSpecialLineStructure(lineStructure == null ? null : lineStructures.get(lineStructure), beat);
+
+        // All the lines are written : the notes of the beat are replaced
+        LineStructure structure = musicBar.getLineStructure(beat);
+        for (int i = 0; i < structure.size(); i++) {
+            musicBar.setCompressedNotes(structure.get(i), beat, PartitionBinaryReader.readVarint(in));
+        }
+    }
+
+    /**
+     * Write a partition in the temporary file of the snapshot
+     * @param copy the partition
+     * @return the length and the checksum of the snapshot
+     * @throws IOException if error while writing
+     */
+    private Snapshot writeSnapshot(MusicPartition copy) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PartitionFileManager.exportToBinary(out, copy);
+        byte[] content = out.toByteArray();
+
+        try (FileChannel channel = FileChannel.open(temporary(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, ByteBuffer.wrap(content));
+            channel.force(true);
+        }
+        return new Snapshot(content);
+    }
+
+    /**
+     * Open the journal to append records
+     * @param end the end of the correct records, the next bytes are removed
+     * @throws IOException if error while opening
+     */
+    private void openJournal(long end) throws IOException {
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        journal.truncate(end);
+        journal.position(end);
+    }
+
+    private Path temporary(Path file) {
+        return file.resolveSibling(file.getFileName() + TEMP_EXTENSION);
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Read the correct records of a journal, until the first incomplete or corrupted record
+     * @param content the journal
+     * @return the records
+     */
+    private static List<Record> readRecords(ByteBuffer content) {
+        List<Record> records = new ArrayList<>();
+        while (content.remaining() >= 8) {
+            int start = content.position();
+            int length = content.getInt();
+            int crc = content.getInt();
+            if (length < 1 || length > content.remaining()) {
+                break;
+            }
+            CRC32 check = new CRC32();
+            check.update(content.array(), content.position(), length);
+            if ((int) check.getValue() != crc) {
+                break;
+            }
+
+            ByteBuffer payload = content.slice();
+            payload.limit(length);
+            content.position(content.position() + length);
+            try {
+                byte type = payload.get();
+                long sequence = PartitionBinaryReader.readVarint(payload);
+                records.add(new Record(type, sequence, payload.slice(), start, content.position()));
+            }
+            catch (IOException | BufferUnderflowException e) {
+                break;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * A record read in the journal
+     */
+    private static final class Record {
+
+        final byte type;
+        final long sequence;
+        final ByteBuffer payload;
+        final int start;
+        final int end;
+
+        Record(byte type, long sequence, ByteBuffer payload, int start, int end) {
+            this.type = type;
+            this.sequence = sequence;
+            this.payload = payload;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * The length and the checksum of a snapshot, to check the snapshot of a checkpoint
+     */
+    private static final class Snapshot {
+
+        final long length;
+        final int crc;
+
+        Snapshot(byte[] content) {
+            CRC32 check = new CRC32();
+            check.update(content, 0, content.length);
+            this.length = content.length;
+            this.crc = (int) check.getValue();
+        }
+
+        /**
+         * Check if a checkpoint is for this snapshot
+         * @param checkpoint the content of the checkpoint record
+         * @return true if same length and same checksum
+         */
+        boolean matches(ByteBuffer checkpoint) {
+            try {
+                return PartitionBinaryReader.readVarint(checkpoint) == length && checkpoint.getInt() == crc;
+            }
+            catch (IOException | BufferUnderflowException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Record the modifications of the partition
+     */
+    private final class EditRecorder implements PartitionEditListener {
+
+        @Override
+        public void onBeatModified(MusicBar musicBar, int beatNumber) {
+            synchronized (PartitionJournal.this) {
+                Integer index = getIndex(musicBar);
+                if (index == null) {
+                    return;
+                }
+                BitSet beats = modifiedBeats.get(index);
+                if (beats == null) {
+                    beats = new BitSet();
+                    modifiedBeats.put(index, beats);
+                }
+                beats.set(beatNumber);
+            }
+        }
+
+        @Override
+        public void onMusicBarAdded(int index, MusicBar musicBar) {
+            synchronized (PartitionJournal.this) {
+                recordModifiedBeats();
+                barIndexesValid = false;
+                PartitionBinaryWriter.Buffer record = startRecord(ADD_BAR, nextSequence++);
+                record.writeVarint(index);
+                for (int beat = 1; beat <= musicPartition.getSettings().notesNumber; beat++) {
+                    writeBeat(record, musicBar, beat);
+                }
+                endRecord(record);
+            }
+        }
+
+        @Override
+        public void onMusicBarRemoved(int index, MusicBar musicBar) {
+            synchronized (PartitionJournal.this) {
+                recordModifiedBeats();
+                barIndexesValid = false;
+                PartitionBinaryWriter.Buffer record = startRecord(REMOVE_BAR, nextSequence++);
+                record.writeVarint(index);
+                endRecord(record);
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package tablab;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * PartitionTabRenderer writes a partition as an ascii tab, directly in a stream.
+ *
+ * The order of the lines is computed once, then the bars are rendered in a single pass : the rows of the tab are
+ * built for a group of bars, written, and reused for the next group. With a number of bars per line, the tab is
+ * wrapped and the memory used does not depend on the length of the partition. Without wrapping, the output is
+ * the same as MusicPartition.toString.
+ *
+ * If the partition has a render cache, the rendered bars are kept in the cache and only the bars modified since the
+ * last rendering are rendered again.
+ */
+public class PartitionTabRenderer {
+
+    private final MusicPartition musicPartition;
+
+    // The number of bars on each line of the tab, 0 to write all the bars on the same line
+    private int barsPerLine = 0;
+
+    /**
+     * Create a renderer
+     * @param musicPartition the partition to render
+     */
+    public PartitionTabRenderer(MusicPartition musicPartition) {
+        this.musicPartition = musicPartition;
+    }
+
+    /**
+     * Get the number of bars on each line of the tab
+     * @return the number of bars, 0 if the tab is not wrapped
+     */
+    public int getBarsPerLine() {
+        return barsPerLine;
+    }
+
+    /**
+     * Set the number of bars on each line of the tab
+     * @param barsPerLine the number of bars, 0 to write all the bars on the same line
+     */
+    public void setBarsPerLine(int barsPerLine) {
+        if (barsPerLine < 0) {
+            throw new IllegalArgumentException("Incorrect number of bars per line : " + barsPerLine);
+        }
+        this.barsPerLine = barsPerLine;
+    }
+
+    /**
+     * Render the partition in a string
+     * @return the tab
+     */
+    public String render() {
+        StringBuilder string = new StringBuilder();
+        try {
+            render(string);
+        }
+        catch (IOException e) {
+            // Not thrown by a StringBuilder
+            throw new IllegalStateException(e);
+        }
+        return String.valueOf(string);
+    }
+
+    /**
+     * Render the partition in a stream
+     * @param out the stream, not flushed and not closed by the method
+     * @throws IOException if error while writing
+     */
+    public void render(Appendable out) throws IOException {
+        PartitionSettings settings = musicPartition.getSettings();
+        int[] lineIds = getLineIds(settings);
+        String[] lineTypes = new String[lineIds.length];
+        for (int i = 0; i < lineIds.length; i++) {
+            lineTypes[i] = LineDictionary.getLine(lineIds[i]);
+        }
+        int nbBars = musicPartition.getMusicBarNumber();
+        TabRenderCache cache = musicPartition.getRenderCache();
+        int groupSize = barsPerLine > 0 ? barsPerLine : Math.max(nbBars, 1);
+
+        // The rows, reused for each group of bars
+        StringBuilder border = new StringBuilder();
+        StringBuilder beats = new StringBuilder();
+        StringBuilder[] parts = new StringBuilder[lineTypes.length];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new StringBuilder();
+        }
+
+        for (int first = 1; first <= Math.max(nbBars, 1); first += groupSize) {
+            border.setLength(0);
+            border.append("---");
+            beats.setLength(0);
+            beats.append("--|");
+            for (int i = 0; i < parts.length; i++) {
+                parts[i].setLength(0);
+                parts[i].append(lineTypes[i], 0, 2).append('|');
+            }
+
+            int last = Math.min(nbBars, first + groupSize - 1);
+            for (int index = first; index <= last; index++) {
+                MusicBar musicBar = musicPartition.getMusicBar(index);
+                RenderedBar renderedBar = cache == null ? null : cache.get(musicBar);
+                if (renderedBar == null) {
+                    renderedBar = new RenderedBar(musicBar, settings);
+                    if (cache != null) {
+                        cache.put(musicBar, renderedBar);
+                    }
+                }
+                renderedBar.appendTo(lineIds, border, beats, parts);
+            }
+
+            if (first > 1) {
+                out.append('\n');
+            }
+            out.append(border).append('\n');
+            if (first == 1) {
+                out.append("# Title : ").append(musicPartition.getTitle()).append(" -- Author : ").append(musicPartition.getAuthor()).append('\n');
+                out.append("# Structure : ").append(String.valueOf(settings.notesNumber)).append("/").append(String.valueOf(settings.notesValue))
+                        .append(" -- Tempo : ").append(String.valueOf((int) settings.tempo)).append(" bpm").append('\n');
+            }
+            out.append(beats).append('\n');
+            for (StringBuilder part : parts) {
+                out.append(part).append('\n');
+            }
+            out.append(border).append('\n');
+        }
+    }
+
+    /**
+     * Get the lines used in the partition, in the order of their first use
+     * @param settings the settings of the partition
+     * @return the ids of the lines
+     */
+    private int[] getLineIds(PartitionSettings settings) {
+        BitSet used = new BitSet();
+        int[] lineIds = new int[8];
+        int nbLines = 0;
+        for (MusicBar musicBar : musicPartition) {
+            for (int beat = 1; beat <= settings.notesNumber; beat++) {
+                LineStructure lineStructure = musicBar.getLineStructure(beat);
+                for (int i = 0; i < lineStructure.size(); i++) {
+                    int lineId = lineStructure.getLineId(i);
+                    if (!used.get(lineId)) {
+                        used.set(lineId);
+                        if (nbLines == lineIds.length) {
+                            lineIds = Arrays.copyOf(lineIds, nbLines * 2);
+                        }
+                        lineIds[nbLines++] = lineId;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(lineIds, nbLines);
+    }
+
+    /**
+     * The rendering of a bar, independent of the other bars : the beat numbers, and the notes of the lines of the bar
+     */
+    static final class RenderedBar {
+
+        // The version of the bar when rendered
+        final int version;
+
+        // The number of notes of the bar
+        private final int width;
+        private final char[] beats;
+        private final int[] lineIds;
+        private final char[][] parts;
+
+        RenderedBar(MusicBar musicBar, PartitionSettings settings) {
+            this.version = musicBar.getVersion();
+
+            int notesNumber = 0;
+            for (int beat = 1; beat <= settings.notesNumber; beat++) {
+                notesNumber += musicBar.getBeatStructure(beat).size();
+            }
+            this.width = notesNumber;
+            StringBuilder beatNumbers = new StringBuilder(width);
+            BitSet used = new BitSet();
+            int[] barLineIds = new int[4];
+            char[][] barParts = new char[4][];
+            int nbLines = 0;
+
+            int start = 0;
+            for (int beat = 1; beat <= settings.notesNumber; beat++) {
+                int size = musicBar.getBeatStructure(beat).size();
+                for (int note = 1; note <= size; note++) {
+                    if (note == 1) {
+                        beatNumbers.append(beat);
+                    }
+                    else {
+                        beatNumbers.append('-');
+                    }
+                }
+
+                LineStructure lineStructure = musicBar.getLineStructure(beat);
+                for (int i = 0; i < lineStructure.size(); i++) {
+                    int lineId = lineStructure.getLineId(i);
+                    if (!used.get(lineId)) {
+                        used.set(lineId);
+                        if (nbLines == barLineIds.length) {
+                            barLineIds = Arrays.copyOf(barLineIds, nbLines * 2);
+                            barParts = Arrays.copyOf(barParts, nbLines * 2);
+                        }
+                        barLineIds[nbLines] = lineId;
+                        barParts[nbLines] = new char[width];
+                        Arrays.fill(barParts[nbLines], '-');
+                        nbLines++;
+                    }
+                }
+                for (int k = 0; k < nbLines; k++) {
+                    long notes = musicBar.getCompressedNotes(LineDictionary.getLine(barLineIds[k]), beat);
+                    for (int note = 1; note <= size && notes != 0; note++) {
+                        if (Notes.isNote(notes, note)) {
+                            barParts[k][start + note - 1] = 'x';
+                        }
+                    }
+                }
+                start += size;
+            }
+
+            this.beats = beatNumbers.toString().toCharArray();
+            this.lineIds = Arrays.copyOf(barLineIds, nbLines);
+            this.parts = Arrays.copyOf(barParts, nbLines);
+        }
+
+        /**
+         * Append the bar to the rows
+         * @param rowLineIds the lines of the rows of the notes
+         * @param border the upper and lower row
+         * @param beatRow the row of the beat numbers
+         * @param partRows the rows of the notes
+         */
+        void appendTo(int[] rowLineIds, StringBuilder border, StringBuilder beatRow, StringBuilder[] partRows) {
+            border.append('-');
+            for (int i = 0; i < width; i++) {
+                border.append('-');
+            }
+            beatRow.append(beats).append('|');
+            for (int i = 0; i < rowLineIds.length; i++) {
+                char[] part = getPart(rowLineIds[i]);
+                if (part != null) {
+                    partRows[i].append(part);
+                }
+                else {
+                    for (int j = 0; j < width; j++) {
+                        partRows[i].append('-');
+                    }
+                }
+                partRows[i].append('|');
+            }
+        }
+
+        private char[] getPart(int lineId) {
+            for (int k = 0; k < lineIds.length; k++) {
+                if (lineIds[k] == lineId) {
+                    return parts[k];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package tablab;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static tablab.PartitionFileManager.*;
+
+/**
+ * PartitionXmlReader reads a partition from a xml stream (StAX).
+ * Each music bar is built and added in the partition as soon as its element is closed,
+ * so only the data of one bar is kept in memory in addition of the partition.
+ *
+ * With a pool, the xml is still read by the calling thread, but the bars are built by the pool :
+ * the bars are added in the partition in the order of the file, when they are built.
+ * The number of bars waiting in the pool is limited, to keep a low memory usage.
+ *
+ * A bar with a "repeat" attribute is a copy of the bar with this number, read before : the copy shares the notes of the bar.
+ */
+final class PartitionXmlReader {
+
+    // The factories are not guaranteed to be thread safe : one factory for each thread
+    private static final ThreadLocal<XMLInputFactory> inputFactory = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            return factory;
+        }
+    };
+
+    private final XMLStreamReader reader;
+    private final MusicBarListener listener;
+
+    // The pool building the bars, null to build the bars in the reading thread
+    private final ForkJoinPool pool;
+    private final Deque<PendingBar> pendingBars = new ArrayDeque<>();
+    private final int maxPendingBars;
+
+    // The structures already read, shared by all the bars
+    private final Map<String, BeatStructure> beatStructures = new HashMap<>();
+    private final Map<String, LineStructure> lineStructures = new HashMap<>();
+
+    // The number (attribute) of the bars added in the partition, in the order of the partition
+    private int[] barNumbers = new int[16];
+    private int barCount = 0;
+
+    private PartitionXmlReader(XMLStreamReader reader, MusicBarListener listener, ForkJoinPool pool) {
+        this.reader = reader;
+        this.listener = listener;
+        this.pool = pool;
+        this.maxPendingBars = pool == null ? 0 : 4 * pool.getParallelism();
+    }
+
+    /**
+     * Read a partition from a xml stream
+     * @param in the stream, not closed by the method
+     * @param listener the listener called for each bar, can be null
+     * @return the music partition
+     * @throws XMLStreamException if the stream is not a correct partition
+     */
+    static MusicPartition read(InputStream in, MusicBarListener listener) throws XMLStreamException {
+        return read(in, listener, null);
+    }
+
+    /**
+     * Read a partition from a xml stream, the bars are built in parallel
+     * @param in the stream, not closed by the method
+     * @param listener the listener called for each bar, can be null
+     * @param pool the pool building the bars, null to build the bars in the calling thread
+     * @return the music partition
+     * @throws XMLStreamException if the stream is not a correct partition
+     */
+    static MusicPartition read(InputStream in, MusicBarListener listener, ForkJoinPool pool) throws XMLStreamException {
+        return read(inputFactory.get().createXMLStreamReader(in), listener, pool);
+    }
+
+    /**
+     * Read a partition from a xml stream
+     * @param in the stream of characters, not closed by the method
+     * @param listener the listener called for each bar, can be null
+     * @return the music partition
+     * @throws XMLStreamException if the stream is not a correct partition
+     */
+    static MusicPartition read(Reader in, MusicBarListener listener) throws XMLStreamException {
+        return read(inputFactory.get().createXMLStreamReader(in), listener, null);
+    }
+
+    private static MusicPartition read(XMLStreamReader reader, MusicBarListener listener, ForkJoinPool pool) throws XMLStreamException {
+        try {
+            return new PartitionXmlReader(reader, listener, pool).readPartition();
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private MusicPartition readPartition() throws XMLStreamException {
+        String title = null;
+        String author = null;
+        PartitionSettings settings = null;
+        MusicPartition partition = null;
+
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String name = reader.getLocalName();
+
+                if (PARTITION.equals(name)) {
+                    title = reader.getAttributeValue(null, TITLE);
+                    author = reader.getAttributeValue(null, AUTHOR);
+                }
+                else if (SETTINGS.equals(name)) {
+                    settings = readSettings();
+                    partition = new MusicPartition(title, author, settings);
+                }
+                else if (MUSIC_BAR.equals(name)) {
+                    if (partition == null) {
+                        throw new XMLStreamException("Music bar before the settings", reader.getLocation());
+                    }
+                    RawBar rawBar = readBar();
+                    if (rawBar.repeat != null) {
+                        addBuiltMusicBars(partition, true);
+                        addMusicBar(partition, getMusicBar(partition, rawBar.repeat).copyMusicBar(), rawBar.number);
+                    }
+                    else if (pool == null) {
+                        addMusicBar(partition, createMusicBar(rawBar, settings), rawBar.number);
+                    }
+                    else {
+                        pendingBars.add(new PendingBar(rawBar.number, pool.submit(new BuildTask(rawBar, settings))));
+                        addBuiltMusicBars(partition, false);
+                    }
+                }
+            }
+            addBuiltMusicBars(partition, true);
+        }
+        catch (IllegalArgumentException e) {
+            // Number or structure not readable
+            throw new XMLStreamException(e.getMessage(), reader.getLocation(), e);
+        }
+        finally {
+            for (PendingBar pendingBar : pendingBars) {
+                pendingBar.task.cancel(false);
+            }
+        }
+
+        if (partition == null) {
+            throw new XMLStreamException("No settings in the partition");
+        }
+        return partition;
+    }
+
+    private PartitionSettings readSettings() throws XMLStreamException {
+        PartitionSettings partitionSettings = new PartitionSettings();
+        partitionSettings.notesNumber = Integer.parseInt(reader.getAttributeValue(null, NOTES_NUMBER));
+        partitionSettings.notesValue = Integer.parseInt(reader.getAttributeValue(null, NOTES_VALUE));
+        partitionSettings.tempo = Float.parseFloat(reader.getAttributeValue(null, TEMPO));
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String name = reader.getLocalName();
+            if (LINE_STRUCTURE.equals(name)) {
+                partitionSettings.lineStructure = getLineStructure(reader.getElementText());
+            }
+            else if (BEAT_STRUCTURE.equals(name)) {
+                partitionSettings.beatStructure = getBeatStructure(reader.getElementText());
+            }
+            else {
+                skipElement();
+            }
+        }
+        return partitionSettings;
+    }
+
+    private RawBar readBar() throws XMLStreamException {
+        RawBar rawBar = new RawBar(Integer.parseInt(reader.getAttributeValue(null, NUMBER)));
+        String repeatAtt = reader.getAttributeValue(null, REPEAT);
+        if (repeatAtt != null) {
+            rawBar.repeat = Integer.parseInt(repeatAtt);
+            skipElement();
+            return rawBar;
+        }
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            if (!BEAT.equals(reader.getLocalName())) {
+                skipElement();
+                continue;
+            }
+
+            String beatAtt = reader.getAttributeValue(null, BEAT_STRUCTURE);
+            String lineAtt = reader.getAttributeValue(null, LINE_STRUCTURE);
+            RawBeat rawBeat = new RawBeat(
+                    Integer.parseInt(reader.getAttributeValue(null, NUMBER)),
+                    beatAtt == null ? null : getBeatStructure(beatAtt),
+                    lineAtt == null ? null : getLineStructure(lineAtt));
+
+            while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                if (LINE.equals(reader.getLocalName())) {
+                    rawBeat.parts.add(reader.getAttributeValue(null, PART));
+                    rawBeat.notes.add(reader.getElementText());
+                }
+                else {
+                    skipElement();
+                }
+            }
+            rawBar.beats.add(rawBeat);
+        }
+        return rawBar;
+    }
+
+    /**
+     * Skip the current element and its content
+     */
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private BeatStructure getBeatStructure(String structure) {
+        BeatStructure beatStructure = beatStructures.get(structure);
+        if (beatStructure == null) {
+            beatStructure = createBeatStructureFromString(structure);
+            beatStructures.put(structure, beatStructure);
+        }
+        return beatStructure;
+    }
+
+    private LineStructure getLineStructure(String structure) {
+        LineStructure lineStructure = lineStructures.get(structure);
+        if (lineStructure == null) {
+            lineStructure = createLineStructureFromString(structure);
+            lineStructures.put(structure, lineStructure);
+        }
+        return lineStructure;
+    }
+
+    /**
+     * Add in the partition the bars built by the pool, in the order of the file
+     * Wait for the first bar if too many bars are waiting
+     * @param partition the partition
+     * @param all true to wait for all the bars
+     */
+    private void addBuiltMusicBars(MusicPartition partition, boolean all) {
+        while (!pendingBars.isEmpty() && (all || pendingBars.size() > maxPendingBars || pendingBars.peek().task.isDone())) {
+            PendingBar pendingBar = pendingBars.poll();
+            addMusicBar(partition, pendingBar.task.join(), pendingBar.number);
+        }
+    }
+
+    /**
+     * Add a bar in the partition, at the position given by its number, and call the listener
+     * @param partition the partition
+     * @param musicBar the bar to add
+     * @param number the number of the bar in the file
+     */
+    private void addMusicBar(MusicPartition partition, MusicBar musicBar, int number) {
+        if (barCount == barNumbers.length) {
+            barNumbers = Arrays.copyOf(barNumbers, barCount * 2);
+        }
+
+        // Bars in order : add the bar at the end
+        int index = barCount;
+        if (barCount > 0 && number < barNumbers[barCount-1]) {
+            // Find the position, after the bars with the same number
+            int low = 0;
+            int high = barCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (barNumbers[middle] <= number) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            index = low;
+            System.arraycopy(barNumbers, index, barNumbers, index + 1, barCount - index);
+        }
+
+        barNumbers[index] = number;
+        barCount++;
+        partition.addMusicBar(index + 1, musicBar);
+        if (listener != null) {
+            listener.onMusicBar(partition, musicBar, index + 1);
+        }
+    }
+
+    /**
+     * Get a bar already added in the partition
+     * @param partition the partition
+     * @param number the number of the bar in the file
+     * @return the first bar with this number
+     * @throws XMLStreamException if there is no bar with this number
+     */
+    private MusicBar getMusicBar(MusicPartition partition, int number) throws XMLStreamException {
+        int low = 0;
+        int high = barCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (barNumbers[middle] < number) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        if (low == barCount || barNumbers[low] != number) {
+            throw new XMLStreamException("Repeated bar " + number + " not found", reader.getLocation());
+        }
+        return partition.getMusicBar(low + 1);
+    }
+
+    /**
+     * Build a music bar from the data of the file
+     * @param rawBar the data of the bar
+     * @param partitionSettings the settings of the partition
+     * @return the music bar
+     */
+    static MusicBar createMusicBar(RawBar rawBar, PartitionSettings partitionSettings) {
+        MusicBar musicBar = new MusicBar(partitionSettings);
+
+        List<RawBeat> beats = rawBar.beats;
+        Collections.sort(beats, new Comparator<RawBeat>() {
+            @Override
+            public int compare(RawBeat o1, RawBeat o2) {
+                return Integer.compare(o1.number, o2.number);
+            }
+        });
+        for (int i = 0; i < beats.size(); i++) {
+            RawBeat beat = beats.get(i);
+            if (beat.beatStructure != null) {
+                musicBar.setSpecialBeatStructure(beat.beatStructure, i+1);
+            }
+            if (beat.lineStructure != null) {
+                musicBar.setSpecialLineStructure(beat.lineStructure, i+1);
+            }
+
+            for (int j = 0; j < beat.parts.size(); j++) {
+                long notes = Long.parseLong(beat.notes.get(j).trim());
+                musicBar.setCompressedNotes(beat.parts.get(j), i+1, notes);
+            }
+        }
+
+        return musicBar;
+    }
+
+    /**
+     * The creation of a music bar, in the pool
+     */
+    private static final class BuildTask implements Callable<MusicBar> {
+
+        private final RawBar rawBar;
+        private final PartitionSettings settings;
+
+        BuildTask(RawBar rawBar, PartitionSettings settings) {
+            this.rawBar = rawBar;
+            this.settings = settings;
+        }
+
+        @Override
+        public MusicBar call() {
+            return createMusicBar(rawBar, settings);
+        }
+    }
+
+    /**
+     * A bar in creation, with its number in the file
+     */
+    private static final class PendingBar {
+
+        final int number;
+        final ForkJoinTask<MusicBar> task;
+
+        PendingBar(int number, ForkJoinTask<MusicBar> task) {
+            this.number = number;
+            this.task = task;
+        }
+    }
+
+    /**
+     * The data of a bar element, before the creation of the music bar
+     */
+    static final class RawBar {
+
+        final int number;
+        final List<RawBeat> beats = new ArrayList<>();
+
+        // The number of the repeated bar, null if the bar is not a repeat
+        Integer repeat = null;
+
+        RawBar(int number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * The data of a beat element
+     */
+    static final class RawBeat {
+
+        final int number;
+        final BeatStructure beatStructure;
+        final LineStructure lineStructure;
+        final List<String> parts = new ArrayList<>();
+        final List<String> notes = new ArrayList<>();
+
+        RawBeat(int number, BeatStructure beatStructure, LineStructure lineStructure) {
+            this.number = number;
+            this.beatStructure = beatStructure;
+            this.lineStructure = lineStructure;
+        }
+    }
+}
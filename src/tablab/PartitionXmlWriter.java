@@ -0,0 +1,275 @@
+package tablab;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static tablab.PartitionFileManager.*;
+
+/**
+ * PartitionXmlWriter writes a partition in a xml stream (StAX), bar by bar, directly from the partition.
+ * The format is the format read by PartitionXmlReader : with the pretty format, the output is the same as the previous
+ * JDOM exporter (indentation of 2 spaces, "\r\n" as line separator).
+ * If the partition uses the deduplication of the bars, a repeated bar is written as an empty bar element
+ * with the number of the first bar with the same content in the "repeat" attribute.
+ * As JDOM, the tabs and line breaks in the title and the author are written as character references, to read them back.
+ */
+final class PartitionXmlWriter {
+
+    // The factories are not guaranteed to be thread safe : one factory for each thread
+    private static final ThreadLocal<XMLOutputFactory> outputFactory = new ThreadLocal<XMLOutputFactory>() {
+        @Override
+        protected XMLOutputFactory initialValue() {
+            return newOutputFactory();
+        }
+    };
+    private static final String ENCODING = "UTF-8";
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private final Writer out;
+    private final XMLStreamWriter writer;
+    private final boolean pretty;
+
+    // Buffers reused for all the bars
+    private final char[] indent = new char[LINE_SEPARATOR.length() + 16];
+    private final char[] number = new char[20];
+    private String[] beatNumbers = new String[0];
+
+    private PartitionXmlWriter(Writer out, XMLStreamWriter writer, boolean pretty) {
+        this.out = out;
+        this.writer = writer;
+        this.pretty = pretty;
+        LINE_SEPARATOR.getChars(0, LINE_SEPARATOR.length(), indent, 0);
+        for (int i = LINE_SEPARATOR.length(); i < indent.length; i++) {
+            indent[i] = ' ';
+        }
+    }
+
+    /**
+     * Create a factory of the implementation of the JDK, even if another implementation is in the classpath :
+     * the attributes with tabs or line breaks are written in the start tag left open by this implementation.
+     * XMLOutputFactory.newDefaultFactory() since Java 9, the implementation class before.
+     * @return the factory
+     */
+    private static XMLOutputFactory newOutputFactory() {
+        try {
+            return (XMLOutputFactory) XMLOutputFactory.class.getMethod("newDefaultFactory").invoke(null);
+        }
+        catch (NoSuchMethodException e) {
+            try {
+                return (XMLOutputFactory) Class.forName("com.sun.xml.internal.stream.XMLOutputFactoryImpl").newInstance();
+            }
+            catch (ReflectiveOperationException | RuntimeException ex) {
+                throw new IllegalStateException("The xml implementation of the JDK is not available", ex);
+            }
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("The xml implementation of the JDK is not available", e);
+        }
+    }
+
+    /**
+     * Write a partition in a xml stream
+     * @param out the stream, flushed but not closed by the method
+     * @param musicPartition the partition to write
+     * @param pretty true to indent the elements, false to write all the elements on a single line
+     * @throws XMLStreamException if error while writing
+     */
+    static void write(Writer out, MusicPartition musicPartition, boolean pretty) throws XMLStreamException {
+        XMLStreamWriter writer = outputFactory.get().createXMLStreamWriter(out);
+        try {
+            new PartitionXmlWriter(out, writer, pretty).writePartition(musicPartition);
+            writer.flush();
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    private void writePartition(MusicPartition musicPartition) throws XMLStreamException {
+        PartitionSettings settings = musicPartition.getSettings();
+        beatNumbers = new String[settings.notesNumber];
+        for (int beat = 1; beat <= settings.notesNumber; beat++) {
+            beatNumbers[beat-1] = String.valueOf(beat);
+        }
+
+        writer.writeStartDocument(ENCODING, "1.0");
+        writer.writeCharacters(LINE_SEPARATOR);
+
+        writer.writeStartElement(PARTITION);
+        writeAttribute(TITLE, musicPartition.getTitle());
+        writeAttribute(AUTHOR, musicPartition.getAuthor());
+
+        writeSettings(settings);
+
+        newLine(1);
+        writer.writeStartElement(BARS);
+        int nbBars = musicPartition.getMusicBarNumber();
+        Map<MusicBarContent, Integer> writtenMusicBars = musicPartition.isBarDeduplication() ? new HashMap<MusicBarContent, Integer>() : null;
+        for (int i = 1; i <= nbBars; i++) {
+            MusicBar musicBar = musicPartition.getMusicBar(i);
+            // Keep the numbering of the previous exporter
+            int barNumber = i+1;
+            if (writtenMusicBars != null) {
+                Integer repeatedNumber = writtenMusicBars.get(new MusicBarContent(musicBar));
+                if (repeatedNumber != null) {
+                    writeRepeatedMusicBar(barNumber, repeatedNumber);
+                    continue;
+                }
+                writtenMusicBars.put(new MusicBarContent(musicBar), barNumber);
+            }
+            writeMusicBar(musicBar, settings, barNumber);
+        }
+        endElement(1, nbBars > 0);
+
+        endElement(0, true);
+        writer.writeEndDocument();
+        writer.writeCharacters(LINE_SEPARATOR);
+    }
+
+    private void writeSettings(PartitionSettings settings) throws XMLStreamException {
+        newLine(1);
+        writer.writeStartElement(SETTINGS);
+        writer.writeAttribute(NOTES_NUMBER, String.valueOf(settings.notesNumber));
+        writer.writeAttribute(NOTES_VALUE, String.valueOf(settings.notesValue));
+        writer.writeAttribute(TEMPO, String.valueOf(settings.tempo));
+
+        newLine(2);
+        writer.writeStartElement(BEAT_STRUCTURE);
+        writer.writeCharacters(getBeatStructureAsString(settings.beatStructure));
+        writer.writeEndElement();
+
+        newLine(2);
+        writer.writeStartElement(LINE_STRUCTURE);
+        writer.writeCharacters(getLineStructureAsString(settings.lineStructure));
+        writer.writeEndElement();
+
+        endElement(1, true);
+    }
+
+    private void writeMusicBar(MusicBar musicBar, PartitionSettings settings, int barNumber) throws XMLStreamException {
+        newLine(2);
+        writer.writeStartElement(MUSIC_BAR);
+        writer.writeAttribute(NUMBER, String.valueOf(barNumber));
+
+        for (int beat = 1; beat <= settings.notesNumber; beat++) {
+            newLine(3);
+            writer.writeStartElement(BEAT);
+            writer.writeAttribute(NUMBER, beatNumbers[beat-1]);
+
+            if (musicBar.hasSpecialBeatStructure(beat)) {
+                writer.writeAttribute(BEAT_STRUCTURE, getBeatStructureAsString(musicBar.getSpecialBeatStructure(beat)));
+            }
+            if (musicBar.hasSpecialLineStructure(beat)) {
+                writer.writeAttribute(LINE_STRUCTURE, getLineStructureAsString(musicBar.getSpecialLineStructure(beat)));
+            }
+
+            LineStructure lineStructure = musicBar.getLineStructure(beat);
+            for (int i = 0; i < lineStructure.size(); i++) {
+                String lineType = lineStructure.get(i);
+                newLine(4);
+                writer.writeStartElement(LINE);
+                writer.writeAttribute(PART, lineType);
+                writeNumber(musicBar.getCompressedNotes(lineType, beat));
+                writer.writeEndElement();
+            }
+            endElement(3, lineStructure.size() > 0);
+        }
+        endElement(2, settings.notesNumber > 0);
+    }
+
+    private void writeRepeatedMusicBar(int barNumber, int repeatedNumber) throws XMLStreamException {
+        newLine(2);
+        writer.writeEmptyElement(MUSIC_BAR);
+        writer.writeAttribute(NUMBER, String.valueOf(barNumber));
+        writer.writeAttribute(REPEAT, String.valueOf(repeatedNumber));
+    }
+
+    /**
+     * Write an attribute of the partition, if not null
+     * The xml stream writes the tabs and line breaks as they are, so a value with these characters is escaped here and
+     * written directly in the stream, in the start tag still opened by the xml stream of the JDK (see newOutputFactory).
+     * @param name the name of the attribute
+     * @param value the value
+     */
+    private void writeAttribute(String name, String value) throws XMLStreamException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf('\t') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.writeAttribute(name, value);
+            return;
+        }
+        StringBuilder attribute = new StringBuilder(name.length() + value.length() + 16);
+        attribute.append(' ').append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<': attribute.append("&lt;"); break;
+                case '>': attribute.append("&gt;"); break;
+                case '"': attribute.append("&quot;"); break;
+                case '&': attribute.append("&amp;"); break;
+                case '\t': attribute.append("&#x9;"); break;
+                case '\n': attribute.append("&#xA;"); break;
+                case '\r': attribute.append("&#xD;"); break;
+                default: attribute.append(c);
+            }
+        }
+        attribute.append('"');
+        writer.flush();
+        try {
+            out.write(attribute.toString());
+        }
+        catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    /**
+     * Write a number as text, without allocation
+     * @param value the number
+     */
+    private void writeNumber(long value) throws XMLStreamException {
+        if (value == Long.MIN_VALUE) {
+            writer.writeCharacters(String.valueOf(value));
+            return;
+        }
+        boolean negative = value < 0;
+        long remaining = Math.abs(value);
+        int start = number.length;
+        do {
+            number[--start] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (negative) {
+            number[--start] = '-';
+        }
+        writer.writeCharacters(number, start, number.length - start);
+    }
+
+    /**
+     * Close the current element
+     * @param depth the depth of the element
+     * @param hasChildren true if the element contains other elements
+     */
+    private void endElement(int depth, boolean hasChildren) throws XMLStreamException {
+        if (hasChildren) {
+            newLine(depth);
+        }
+        writer.writeEndElement();
+    }
+
+    /**
+     * Go to a new line and indent, with the pretty format
+     * @param depth the depth of the next element
+     */
+    private void newLine(int depth) throws XMLStreamException {
+        if (pretty) {
+            writer.writeCharacters(indent, 0, LINE_SEPARATOR.length() + 2 * depth);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package tablab;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * TabRenderCache keeps the rendered bars of a partition (see PartitionTabRenderer), with the version of each bar :
+ * a bar modified since its rendering is rendered again. The bars are weakly referenced, the cache does not keep the
+ * bars removed from the partition.
+ */
+final class TabRenderCache {
+
+    private final Map<MusicBar, PartitionTabRenderer.RenderedBar> renderedBars = new WeakHashMap<>();
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Get the rendering of a bar
+     * @param musicBar the bar
+     * @return the rendered bar, null if the bar is not rendered or modified since its rendering
+     */
+    synchronized PartitionTabRenderer.RenderedBar get(MusicBar musicBar) {
+        PartitionTabRenderer.RenderedBar renderedBar = renderedBars.get(musicBar);
+        if (renderedBar == null || renderedBar.version != musicBar.getVersion()) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return renderedBar;
+    }
+
+    /**
+     * Keep the rendering of a bar
+     * @param musicBar the bar
+     * @param renderedBar the rendered bar
+     */
+    synchronized void put(MusicBar musicBar, PartitionTabRenderer.RenderedBar renderedBar) {
+        renderedBars.put(musicBar, renderedBar);
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,260 @@
+package tablab;
+
+import java.util.Arrays;
+
+/**
+ * Notes on more than 64 positions, for example all the notes of a line in a bar, or a dense tuplet structure.
+ * The notes are encoded as in Notes, on several integers (long) : the position 1 is the lowest bit of the first word,
+ * the position 65 the lowest bit of the second word, ...
+ * The number of positions is fixed at the creation.
+ */
+public class WideNotes {
+
+    private final int size;
+    private final long[] words;
+
+    /**
+     * Create new empty notes
+     * @param size the number of positions
+     */
+    public WideNotes(int size) {
+        this.size = size;
+        this.words = new long[(size + Long.SIZE - 1) / Long.SIZE];
+    }
+
+    /**
+     * Get the number of positions
+     * @return the number of positions
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add a note the position given
+     * Do nothing if already present at the position or if the position is out of the notes
+     * @param noteNumber the position > 0
+     */
+    public void addNote(int noteNumber) {
+        if (isPosition(noteNumber)) {
+            words[(noteNumber - 1) >>> 6] |= 1L << (noteNumber - 1);
+        }
+    }
+
+    /**
+     * Remove a note the position given
+     * Do nothing if any note at the position
+     * @param noteNumber the position > 0
+     */
+    public void removeNote(int noteNumber) {
+        if (isPosition(noteNumber)) {
+            words[(noteNumber - 1) >>> 6] &= ~(1L << (noteNumber - 1));
+        }
+    }
+
+    /**
+     * Determine if there is a note at the given position
+     * @param noteNumber the position > 0
+     * @return if there is a note at the given position
+     */
+    public boolean isNote(int noteNumber) {
+        return isPosition(noteNumber) && (words[(noteNumber - 1) >>> 6] & (1L << (noteNumber - 1))) != 0;
+    }
+
+    /**
+     * Get the number of notes
+     * @return the number of positions with a note
+     */
+    public int count() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Check if there is no note
+     * @return true if there is no note at any position
+     */
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the first position with a note, from a given position
+     * Use to iterate on the notes : for (int n = notes.nextNote(1); n > 0; n = notes.nextNote(n + 1))
+     * @param noteNumber the first position to check > 0
+     * @return the first position with a note, greater or equal to noteNumber, -1 if there is no more note
+     */
+    public int nextNote(int noteNumber) {
+        int bit = Math.max(noteNumber, 1) - 1;
+        if (bit >= size) {
+            return -1;
+        }
+        int w = bit >>> 6;
+        long word = words[w] & (-1L << bit);
+        while (word == 0) {
+            if (++w == words.length) {
+                return -1;
+            }
+            word = words[w];
+        }
+        return w * Long.SIZE + Long.numberOfTrailingZeros(word) + 1;
+    }
+
+    /**
+     * Get the notes of up to 64 consecutive positions, as compressed notes (see Notes)
+     * @param noteNumber the first position > 0
+     * @param length the number of positions, between 0 and 64
+     * @return the compressed notes, the first position is the lowest bit
+     */
+    public long getNotes(int noteNumber, int length) {
+        int bit = noteNumber - 1;
+        int w = bit >>> 6;
+        int offset = bit & 63;
+        long notes = w < words.length ? words[w] >>> offset : 0;
+        if (offset != 0 && w + 1 < words.length) {
+            notes |= words[w + 1] << (Long.SIZE - offset);
+        }
+        return notes & lowMask(length);
+    }
+
+    /**
+     * Set the notes of up to 64 consecutive positions, from compressed notes (see Notes)
+     * The notes out of the positions are ignored
+     * @param noteNumber the first position > 0
+     * @param length the number of positions, between 0 and 64
+     * @param notes the compressed notes, the first position is the lowest bit
+     */
+    public void setNotes(int noteNumber, int length, long notes) {
+        int bit = noteNumber - 1;
+        int w = bit >>> 6;
+        int offset = bit & 63;
+        long mask = lowMask(length);
+        notes &= mask;
+        if (w < words.length) {
+            words[w] = (words[w] & ~(mask << offset)) | (notes << offset);
+        }
+        if (offset != 0 && w + 1 < words.length) {
+            int shift = Long.SIZE - offset;
+            words[w + 1] = (words[w + 1] & ~(mask >>> shift)) | (notes >>> shift);
+        }
+        clearTail();
+    }
+
+    /**
+     * Keep only the notes present in these notes and in the other notes
+     * @param other the other notes
+     */
+    public void and(WideNotes other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= i < other.words.length ? other.words[i] : 0;
+        }
+    }
+
+    /**
+     * Add all the notes of the other notes, the notes out of the positions are ignored
+     * @param other the other notes
+     */
+    public void or(WideNotes other) {
+        for (int i = 0; i < Math.min(words.length, other.words.length); i++) {
+            words[i] |= other.words[i];
+        }
+        clearTail();
+    }
+
+    /**
+     * Keep only the notes present in these notes or in the other notes, but not in both
+     * @param other the other notes
+     */
+    public void xor(WideNotes other) {
+        for (int i = 0; i < Math.min(words.length, other.words.length); i++) {
+            words[i] ^= other.words[i];
+        }
+        clearTail();
+    }
+
+    /**
+     * Move all the notes
+     * The notes moved out of the positions are lost
+     * @param positions the number of positions, later if positive, earlier if negative
+     */
+    public void shift(int positions) {
+        int wordShift = Math.abs(positions) >>> 6;
+        int bitShift = Math.abs(positions) & 63;
+
+        if (positions > 0) {
+            for (int i = words.length - 1; i >= 0; i--) {
+                int src = i - wordShift;
+                long word = src >= 0 ? words[src] << bitShift : 0;
+                if (bitShift != 0 && src - 1 >= 0) {
+                    word |= words[src - 1] >>> (Long.SIZE - bitShift);
+                }
+                words[i] = word;
+            }
+            clearTail();
+        }
+        else if (positions < 0) {
+            for (int i = 0; i < words.length; i++) {
+                int src = i + wordShift;
+                long word = src < words.length ? words[src] >>> bitShift : 0;
+                if (bitShift != 0 && src + 1 < words.length) {
+                    word |= words[src + 1] << (Long.SIZE - bitShift);
+                }
+                words[i] = word;
+            }
+        }
+    }
+
+    /**
+     * Get a copy of the notes
+     * @return A copy of the notes
+     */
+    public WideNotes copyNotes() {
+        WideNotes notes = new WideNotes(size);
+        System.arraycopy(words, 0, notes.words, 0, words.length);
+        return notes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof WideNotes && ((WideNotes) o).size == size && Arrays.equals(((WideNotes) o).words, words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * size + Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        for (int i = size; i >= 1; i--) {
+            str.append(isNote(i) ? '1' : '0');
+        }
+        return String.valueOf(str);
+    }
+
+    private boolean isPosition(int noteNumber) {
+        return noteNumber >= 1 && noteNumber <= size;
+    }
+
+    /**
+     * Remove the bits after the last position
+     */
+    private void clearTail() {
+        if ((size & 63) != 0) {
+            words[words.length - 1] &= lowMask(size & 63);
+        }
+    }
+
+    private static long lowMask(int length) {
+        return length >= Long.SIZE ? -1L : (1L << length) - 1;
+    }
+}
@@ -1,10 +1,10 @@
 package tablab.partitionPlayer;
 
-import tablab.Fraction;
 import tablab.MusicPartition;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * AbstractPartitionPlayer is an implementation of partitionPlayer, with a abstraction for the multithreading aspects.
@@ -12,16 +12,36 @@ import java.util.List;
  */
 public abstract class AbstractPartitionPlayer implements PartitionPlayer {
 
-    // The thread running the player
-    private Thread thread;
+    // The thread running the player, and the factory creating it for each playing
+    // A thread which is not the thread of the player anymore stops playing
+    private volatile Thread thread;
+    private volatile ThreadFactory threadFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable);
+        }
+    };
 
     // State of the player
-    private boolean isStarted;
+    private volatile boolean isStarted;
     private boolean isPaused;
 
     private List<PlayerCallback> callbacks = new ArrayList<>();
     private MusicPartition partition;
 
+    // The position to go, set by seek, null if none
+    private volatile TimelinePosition seekPosition;
+
+    // The tempo of the playing, null if no partition was played
+    private volatile TempoRamp tempoRamp;
+
+    // Timing measures
+    private volatile LatencyHistogram lateness = new LatencyHistogram();
+    private volatile LatencyHistogram callbackTime = new LatencyHistogram();
+    private volatile long wakeups = 0;
+    private volatile long lastLateness = 0;
+    private volatile boolean jfrEvents = false;
+
     /**
      * A method to make wait the current with the given time
      *
@@ -30,6 +50,28 @@ public abstract class AbstractPartitionPlayer implements PartitionPlayer {
      */
     abstract void sleep(long millis) throws InterruptedException;
 
+    /**
+     * Make wait the current thread until a given time.
+     * By default, sleep the number of milliseconds before the time (see sleep).
+     *
+     * @param deadline the time to wait, in the time of System.nanoTime()
+     * @throws InterruptedException if exception with the method
+     */
+    void waitUntil(long deadline) throws InterruptedException {
+        long sleepTime = (deadline - System.nanoTime()) / 1000000;
+        if (sleepTime > 0) {
+            sleep(sleepTime);
+            wokenUp();
+        }
+    }
+
+    /**
+     * Count a wake up of the playing thread, after a sleep or a park
+     */
+    void wokenUp() {
+        wakeups++;
+    }
+
     /**
      * A method to lock the current thread, such as a mutual exclusion lock.
      * If lockPause is called, the current thread have to wait until the method notifyPause is call by a another thread.
@@ -45,17 +87,57 @@ public abstract class AbstractPartitionPlayer implements PartitionPlayer {
     abstract void notifyPause();
 
     public void playPartition(MusicPartition partition) {
-        this.partition = partition;
+        play(partition, TimelinePosition.START);
+    }
+
+    public void playFrom(MusicPartition partition, int barNumber, int beatNumber, int noteNumber) {
+        play(partition, TimelinePosition.ofNote(partition, barNumber, beatNumber, noteNumber));
+    }
+
+    private void play(MusicPartition partition, TimelinePosition position) {
         if (isStarted) {
             stopPlaying();
         }
+        // Wait the end of the previous playing, unless called by its own thread (from a callback)
+        Thread previousThread = thread;
+        if (previousThread != null && previousThread != Thread.currentThread()) {
+            try {
+                previousThread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.partition = partition;
         isStarted = true;
         isPaused = false;
+        seekPosition = null;
+        tempoRamp = TempoRamp.constant(partition.getSettings().tempo);
         // start playing
-        thread = new Thread(new PlayerRunnable());
+        thread = threadFactory.newThread(new PlayerRunnable(position));
         thread.start();
     }
 
+    public void seek(int barNumber, int beatNumber, int noteNumber) {
+        if (isStarted) {
+            seek(TimelinePosition.ofNote(partition, barNumber, beatNumber, noteNumber));
+        }
+    }
+
+    public void seek(long millis) {
+        if (isStarted) {
+            seek(TimelinePosition.ofTime(millis));
+        }
+    }
+
+    private void seek(TimelinePosition position) {
+        seekPosition = position;
+        // interrupt the thread waiting the next note, a paused thread goes to the position when resumed
+        if (!isPaused && thread != null) {
+            thread.interrupt();
+        }
+    }
+
     public void stopPlaying() {
         isStarted = false;
         // unlock the thread if the player is paused
@@ -101,11 +183,78 @@ public abstract class AbstractPartitionPlayer implements PartitionPlayer {
         return isStarted;
     }
 
+    public float getTempo() {
+        TempoRamp ramp = tempoRamp;
+        return ramp == null ? 0 : ramp.getTempo(System.nanoTime());
+    }
+
+    public void setTempo(float tempo) {
+        tempoRamp = TempoRamp.constant(tempo);
+    }
+
+    public void rampTempo(float targetTempo, long durationMillis) {
+        TempoRamp ramp = tempoRamp;
+        tempoRamp = (ramp == null ? TempoRamp.constant(targetTempo) : ramp).rampTo(targetTempo, durationMillis);
+    }
+
+    /**
+     * Get the factory creating the thread of each playing
+     * @return the thread factory
+     */
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    /**
+     * Set the factory creating the thread of each playing, used from the next playing
+     * @param threadFactory the thread factory
+     */
+    public void setThreadFactory(ThreadFactory threadFactory) {
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("The thread factory can not be null");
+        }
+        this.threadFactory = threadFactory;
+    }
+
 
     public boolean isPaused() {
         return isPaused;
     }
 
+    /**
+     * Get the timing measures of the player, since its creation or the last reset
+     * @return a snapshot of the measures
+     */
+    public PlayerMetrics getMetrics() {
+        return new PlayerMetrics(lateness.copy(), callbackTime.copy(), wakeups, lastLateness);
+    }
+
+    /**
+     * Reset the timing measures
+     */
+    public void resetMetrics() {
+        lateness = new LatencyHistogram();
+        callbackTime = new LatencyHistogram();
+        wakeups = 0;
+        lastLateness = 0;
+    }
+
+    /**
+     * Check if the played notes are written in the Java Flight Recorder
+     * @return true if the events are written
+     */
+    public boolean isJfrEvents() {
+        return jfrEvents;
+    }
+
+    /**
+     * Write the played notes in the Java Flight Recorder ("tablab.PlayerNote" events), if the Flight Recorder is available
+     * @param jfrEvents true to write the events
+     */
+    public void setJfrEvents(boolean jfrEvents) {
+        this.jfrEvents = jfrEvents && PlayerJfrEvents.isAvailable();
+    }
+
     public void addPlayerCallback(PlayerCallback callback) {
         callbacks.add(callback);
     }
@@ -115,35 +264,34 @@ public abstract class AbstractPartitionPlayer implements PartitionPlayer {
     }
 
 
+    /**
+     * Record the timing of a played note
+     * @param noteLateness the time between the expected time of the note and the call of the callbacks, in nanoseconds
+     * @param noteCallbackTime the time spent in the callbacks, in nanoseconds
+     */
+    private void recordNote(int barNumber, int beatNumber, int noteNumber, long noteLateness, long noteCallbackTime) {
+        lateness.record(noteLateness);
+        callbackTime.record(noteCallbackTime);
+        lastLateness = noteLateness;
+        if (jfrEvents) {
+            PlayerJfrEvents.commit(barNumber, beatNumber, noteNumber, noteLateness, noteCallbackTime);
+        }
+    }
+
     private class PlayerRunnable implements Runnable {
 
+        // The position of the first note to play
+        private final TimelinePosition startPosition;
+
+        PlayerRunnable(TimelinePosition startPosition) {
+            this.startPosition = startPosition;
+        }
+
         @Override
         public void run() {
 
-            int nbBars = partition.getMusicBarNumber();
-            int nbBeats = partition.getSettings().notesNumber;
-            float timeBetweenNoteValue = 60000 / partition.getSettings().tempo; // The time (in ms) between 2 notes
-            List<NoteDelay> noteDelays = new ArrayList<>(); // A list with the time of all the notes
-
-            // Compute the time (time value) of all the notes in the partition
-            for (int bar = 1; bar <= nbBars; bar++) {
-                for (int beat = 1; beat <= nbBeats; beat++) {
-                    int nbNotes = partition.getMusicBar(bar).getBeatStructure(beat).size();
-                    // Get the time evolution of the beat :
-                    List<Fraction> fractions = partition.getMusicBar(bar).getBeatStructure(beat).getFractionEvolution(partition.getSettings());
-                    for (int note = 1; note <= nbNotes; note++) {
-                        float time;
-                        // Compute the real time of the note :
-                        if (note < nbNotes) {
-                            time = (float) (fractions.get(note).doubleValue() - fractions.get(note - 1).doubleValue());
-                        } else {
-                            time = (float) (1 - fractions.get(note - 1).doubleValue());
-                        }
-                        time *= timeBetweenNoteValue;
-                        noteDelays.add(new NoteDelay(time, bar, beat, note));
-                    }
-                }
-            }
+            // The time of all the notes in the partition, compiled once for each version of the partition
+            CompiledTimeline timeline = CompiledTimeline.compile(partition);
 
             // Call the callbacks
             for (PlayerCallback callback : callbacks) {
@@ -151,31 +299,30 @@ public abstract class AbstractPartitionPlayer implements PartitionPlayer {
             }
 
             // Start playing the partition
-            int i = 0;
-            while (isStarted && i != noteDelays.size()) {
+            int i = startPosition.getIndex(timeline);
+            while (isPlaying(i, timeline)) {
 
                 // Player core : play all the partition and handle stop and pause
                 try {
 
-                    long startTime = System.currentTimeMillis();
-                    float expectedTime = 0;
-
-                    for (; i < noteDelays.size(); i++) {
-                        NoteDelay noteDelay = noteDelays.get(i);
+                    // The expected time of the note
+                    long noteTime = System.nanoTime();
 
-                        // Compute the expected time :
-                        expectedTime += noteDelay.delay;
+                    for (; isPlaying(i, timeline); i++) {
 
                         // Call the callback with the current position of the partition
+                        int barNumber = timeline.getBarNumber(i);
+                        int beatNumber = timeline.getBeatNumber(i);
+                        int noteNumber = timeline.getNoteNumber(i);
+                        long callbackStart = System.nanoTime();
                         for (PlayerCallback callback : callbacks) {
-                            callback.onNextNote(noteDelay.barNumber, noteDelay.beatNumber, noteDelay.noteNumber);
+                            callback.onNextNote(barNumber, beatNumber, noteNumber);
                         }
+                        recordNote(barNumber, beatNumber, noteNumber, callbackStart - noteTime, System.nanoTime() - callbackStart);
 
-                        // Sleep the correct amount of time to match with the expected time :
-                        long sleepTime = (long) (expectedTime) - (System.currentTimeMillis() - startTime);
-                        if (sleepTime > 0) {
-                            sleep(sleepTime);
-                        }
+                        // Wait the expected time of the next note, at the current tempo :
+                        noteTime += tempoRamp.getDelay(timeline, i);
+                        waitUntil(noteTime);
                     }
                 }
                 // Handle interruption (pause and stop)
@@ -189,36 +336,36 @@ public abstract class AbstractPartitionPlayer implements PartitionPlayer {
                         }
 
                     }
-                    // Stop, or error : stop playing
-                    else {
-                        isStarted = false;
-                    }
+                    // Stop : isStarted is already false and the loop ends, otherwise (seek) the playing continues
+                }
+
+                // Go to the position of a seek : the index of the note is found in the timeline, without compiling it again
+                TimelinePosition position = seekPosition;
+                if (position != null) {
+                    seekPosition = null;
+                    i = position.getIndex(timeline);
                 }
             }
 
-            isStarted = false;
+            // A next playing is already started if the thread is not the thread of the player
+            if (thread == Thread.currentThread()) {
+                isStarted = false;
+            }
             // Call the callbacks
             for (PlayerCallback callback : callbacks) {
                 callback.onFinish();
             }
         }
-    }
 
-    /**
-     * Data structure which contains the current position in the partition (bar, beat and note), the time of this 'position' (i.e. a note (pitch value))
-     */
-    private class NoteDelay {
-
-        float delay;
-        int barNumber;
-        int beatNumber;
-        int noteNumber;
-
-        NoteDelay(float delay, int barNumber, int beatNumber, int noteNumber) {
-            this.delay = delay;
-            this.barNumber = barNumber;
-            this.beatNumber = beatNumber;
-            this.noteNumber = noteNumber;
+        /**
+         * Check if the playing continues : the player is not stopped, the thread is still the thread of the player,
+         * and the note is in the partition
+         * @param index the index of the next note
+         * @param timeline the timeline of the partition
+         * @return true if the note has to be played
+         */
+        private boolean isPlaying(int index, CompiledTimeline timeline) {
+            return isStarted && thread == Thread.currentThread() && index < timeline.size();
         }
     }
 }
@@ -0,0 +1,281 @@
+package tablab.partitionPlayer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AsyncPlayerCallback calls a callback in its own thread, to keep a slow callback from delaying the notes of the player.
+ *
+ * The playing thread only publishes the events (start, notes and finish) in a ring buffer allocated at the creation,
+ * without lock, and the thread of the callback calls the callback with the events in the same order.
+ * A place of the ring buffer is taken with a compare and set, so the events can also be published by several threads
+ * (a new playing starting while the previous one finishes, or a stop from another thread).
+ * The events onPause, onResume and onStop are not sent by the playing thread : they are called directly, by the thread
+ * calling the player.
+ *
+ * When the ring buffer is full, a note is handled with the overflow policy. The start and finish events are never lost :
+ * the playing thread waits for a free place.
+ */
+public class AsyncPlayerCallback implements PlayerCallback {
+
+    /**
+     * The handling of a note when the ring buffer is full
+     */
+    public enum OverflowPolicy {
+        /** The note is lost */
+        DROP,
+        /** The playing thread waits for a free place */
+        BLOCK,
+        /** The note is kept aside, and replaced by the next notes until the callback gets it : the callback gets the last note */
+        COALESCE
+    }
+
+    // Types of the events
+    private static final long START = 1;
+    private static final long NOTE = 2;
+    private static final long FINISH = 3;
+    private static final long NONE = -1;
+
+    private final PlayerCallback callback;
+    private final OverflowPolicy overflowPolicy;
+    private final Thread thread;
+
+    // The ring buffer : the events from tail to head are not yet sent to the callback
+    // The sequence of a place is its event number + 1 when the event is published, and the next event number of the
+    // place when the place is free
+    private final long[] events;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private long tail = 0;
+
+    // The note kept aside when the ring buffer is full, NONE if none (coalesce policy)
+    private final AtomicLong pendingNote = new AtomicLong(NONE);
+
+    private volatile boolean waiting = false;
+    private volatile boolean closed = false;
+    private final AtomicLong droppedNotes = new AtomicLong();
+    private final AtomicLong coalescedNotes = new AtomicLong();
+
+    /**
+     * Create a callback called in its own thread
+     * @param callback the callback
+     * @param capacity the number of events kept in the ring buffer, rounded up to a power of two
+     * @param overflowPolicy the handling of a note when the ring buffer is full
+     */
+    public AsyncPlayerCallback(PlayerCallback callback, int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Incorrect capacity : " + capacity);
+        }
+        this.callback = callback;
+        this.overflowPolicy = overflowPolicy;
+        int length = 1;
+        while (length < capacity) {
+            length <<= 1;
+        }
+        this.events = new long[length];
+        this.sequences = new AtomicLongArray(length);
+        for (int i = 0; i < length; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = events.length - 1;
+        this.thread = new Thread(new Dispatcher(), "AsyncPlayerCallback");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Get the number of notes lost because the ring buffer was full (drop policy)
+     * @return the number of notes
+     */
+    public long getDroppedNotes() {
+        return droppedNotes.get();
+    }
+
+    /**
+     * Get the number of notes replaced by a next note because the ring buffer was full (coalesce policy)
+     * @return the number of notes
+     */
+    public long getCoalescedNotes() {
+        return coalescedNotes.get();
+    }
+
+    /**
+     * Stop the thread of the callback, after the events already published
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void onStart() {
+        publishWaiting(START << 48);
+    }
+
+    @Override
+    public void onFinish() {
+        publishWaiting(FINISH << 48);
+    }
+
+    @Override
+    public void onPause() {
+        callback.onPause();
+    }
+
+    @Override
+    public void onResume() {
+        callback.onResume();
+    }
+
+    @Override
+    public void onStop() {
+        callback.onStop();
+    }
+
+    @Override
+    public void onNextNote(int barNumber, int beatNumber, int noteNumber) throws InterruptedException {
+        long event = NOTE << 48 | (long) barNumber << 16 | (beatNumber & 0xFF) << 8 | (noteNumber & 0xFF);
+        switch (overflowPolicy) {
+            case DROP:
+                if (!publish(event)) {
+                    droppedNotes.incrementAndGet();
+                }
+                break;
+            case COALESCE:
+                // A note kept aside is newer than the ring buffer : the next notes are kept aside too
+                if (pendingNote.get() != NONE || !publish(event)) {
+                    if (pendingNote.getAndSet(event) != NONE) {
+                        coalescedNotes.incrementAndGet();
+                    }
+                    wakeUp();
+                }
+                break;
+            default:
+                while (!publish(event)) {
+                    waitForPlace();
+                }
+        }
+    }
+
+    /**
+     * Publish an event in the ring buffer
+     * @param event the event
+     * @return false if the ring buffer is full
+     */
+    private boolean publish(long event) {
+        while (true) {
+            long h = head.get();
+            long sequence = sequences.get((int) h & mask);
+            // The place is not yet free : full
+            if (sequence < h) {
+                return false;
+            }
+            if (sequence == h && head.compareAndSet(h, h + 1)) {
+                events[(int) h & mask] = event;
+                // A volatile write, ordered before the read of waiting : the thread of the callback sees the event or is woken up
+                sequences.set((int) h & mask, h + 1);
+                wakeUp();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Check if the next event is published, by the thread of the callback
+     * @return true if an event can be taken
+     */
+    private boolean isPublished() {
+        return sequences.get((int) tail & mask) == tail + 1;
+    }
+
+    /**
+     * Publish an event which can not be lost, after the note kept aside
+     * @param event the event
+     */
+    private void publishWaiting(long event) {
+        boolean interrupted = false;
+        while (pendingNote.get() != NONE || !publish(event)) {
+            try {
+                waitForPlace();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void waitForPlace() throws InterruptedException {
+        wakeUp();
+        LockSupport.parkNanos(this, 10000);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    private void wakeUp() {
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Call the callback with an event
+     * @param event the event
+     */
+    private void dispatch(long event) {
+        try {
+            long type = event >>> 48;
+            if (type == START) {
+                callback.onStart();
+            }
+            else if (type == FINISH) {
+                callback.onFinish();
+            }
+            else {
+                callback.onNextNote((int) (event >>> 16), (int) (event >>> 8) & 0xFF, (int) event & 0xFF);
+            }
+        }
+        catch (InterruptedException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The thread of the callback : get the events of the ring buffer, then the note kept aside
+     */
+    private class Dispatcher implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                if (isPublished()) {
+                    long event = events[(int) tail & mask];
+                    sequences.lazySet((int) tail & mask, tail + events.length);
+                    tail++;
+                    dispatch(event);
+                    continue;
+                }
+                long note = pendingNote.getAndSet(NONE);
+                if (note != NONE) {
+                    dispatch(note);
+                    continue;
+                }
+                if (closed) {
+                    return;
+                }
+
+                // Nothing to send : wait for the playing thread, check again after announcing the wait
+                waiting = true;
+                if (!isPublished() && pendingNote.get() == NONE && !closed) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+            }
+        }
+    }
+}
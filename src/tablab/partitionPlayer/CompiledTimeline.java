@@ -0,0 +1,299 @@
+package tablab.partitionPlayer;
+
+import tablab.BeatStructure;
+import tablab.Fraction;
+import tablab.MusicBar;
+import tablab.MusicPartition;
+import tablab.PartitionSettings;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * CompiledTimeline is the list of the notes (pitch values) of a partition, in the order of the playing, with the time of each note.
+ *
+ * The times are the offsets (in nanoseconds) from the start of the partition, at the tempo of the timeline.
+ * The position of each note (bar, beat and note) is packed in an int.
+ * A timeline is compiled once for each version of a partition and of its settings, and kept in a cache : playing
+ * the same partition again does not compute the timeline again. A change of the tempo does not compile the timeline
+ * again : the timeline at the new tempo shares the notes of the compiled timeline, and scales their offsets.
+ */
+public final class CompiledTimeline {
+
+    // Bits of the packed positions
+    private static final int NOTE_BITS = 6;
+    private static final int BEAT_BITS = 6;
+    private static final int BAR_BITS = Integer.SIZE - NOTE_BITS - BEAT_BITS;
+    private static final int NOTE_MASK = (1 << NOTE_BITS) - 1;
+    private static final int BEAT_MASK = (1 << BEAT_BITS) - 1;
+    // The packed positions are positive, to keep them sorted for the binary search : the sign bit is not used by the bars
+    private static final int MAX_BARS = 1 << (BAR_BITS - 1);
+
+    // The last compiled timeline of each partition
+    private static final Map<MusicPartition, CompiledTimeline> timelines = new WeakHashMap<>();
+
+    // The partition version and the settings used by the compilation
+    private final int version;
+    private final float compiledTempo;
+    private final int notesNumber;
+    private final int notesValue;
+    private final BeatStructure beatStructure;
+
+    // The tempo of the timeline, the offsets are scaled if different from the compiled tempo
+    private final float tempo;
+
+    // The offset of each note at the compiled tempo, and the end of the partition at the index size
+    private final long[] offsets;
+    private final int[] positions;
+    private final int size;
+
+    private CompiledTimeline(int version, PartitionSettings settings, long[] offsets, int[] positions, int size) {
+        this.version = version;
+        this.compiledTempo = settings.tempo;
+        this.notesNumber = settings.notesNumber;
+        this.notesValue = settings.notesValue;
+        this.beatStructure = settings.beatStructure;
+        this.tempo = settings.tempo;
+        this.offsets = offsets;
+        this.positions = positions;
+        this.size = size;
+    }
+
+    /**
+     * Create a timeline sharing the notes of a compiled timeline, at another tempo
+     * @param timeline the compiled timeline
+     * @param tempo the tempo
+     */
+    private CompiledTimeline(CompiledTimeline timeline, float tempo) {
+        this.version = timeline.version;
+        this.compiledTempo = timeline.compiledTempo;
+        this.notesNumber = timeline.notesNumber;
+        this.notesValue = timeline.notesValue;
+        this.beatStructure = timeline.beatStructure;
+        this.tempo = tempo;
+        this.offsets = timeline.offsets;
+        this.positions = timeline.positions;
+        this.size = timeline.size;
+    }
+
+    /**
+     * Get the timeline of a partition
+     * The timeline is compiled if the partition or its settings are modified since the last compilation, or taken from the cache
+     * @param partition the partition
+     * @return the timeline
+     */
+    public static CompiledTimeline compile(MusicPartition partition) {
+        PartitionSettings settings = partition.getSettings();
+        synchronized (timelines) {
+            CompiledTimeline timeline = timelines.get(partition);
+            if (timeline != null && timeline.isCompiled(partition.getVersion(), settings)) {
+                if (timeline.tempo != settings.tempo) {
+                    timeline = new CompiledTimeline(timeline, settings.tempo);
+                    timelines.put(partition, timeline);
+                }
+                return timeline;
+            }
+        }
+
+        CompiledTimeline timeline = compileTimeline(partition);
+        synchronized (timelines) {
+            timelines.put(partition, timeline);
+        }
+        return timeline;
+    }
+
+    /**
+     * Check if the timeline is compiled from a version of a partition and from its settings
+     * The settings are public fields, modified without changing the version of the partition : all the settings used
+     * by the compilation are compared, except the tempo.
+     * @param version the version of the partition
+     * @param settings the settings of the partition
+     * @return true if the timeline can be used for the partition
+     */
+    private boolean isCompiled(int version, PartitionSettings settings) {
+        return this.version == version
+                && notesNumber == settings.notesNumber
+                && notesValue == settings.notesValue
+                && beatStructure == settings.beatStructure;
+    }
+
+    private static CompiledTimeline compileTimeline(MusicPartition partition) {
+        int version = partition.getVersion();
+        PartitionSettings settings = partition.getSettings();
+        int nbBars = partition.getMusicBarNumber();
+        int nbBeats = settings.notesNumber;
+        if (nbBars > MAX_BARS || nbBeats > 1 << BEAT_BITS) {
+            throw new IllegalArgumentException("Partition too large for a timeline : " + nbBars + " bars of " + nbBeats + " beats");
+        }
+        double nanosPerBeat = 60e9 / settings.tempo;
+
+        // The relative times of the notes of each beat structure, from 0 to 1
+        Map<BeatStructure, double[]> noteTimes = new IdentityHashMap<>();
+
+        int capacity = nbBars * nbBeats * 4 + 1;
+        long[] offsets = new long[capacity];
+        int[] positions = new int[capacity];
+        int size = 0;
+        double beats = 0;
+        for (int bar = 1; bar <= nbBars; bar++) {
+            MusicBar musicBar = partition.getMusicBar(bar);
+            for (int beat = 1; beat <= nbBeats; beat++) {
+                BeatStructure beatStructure = musicBar.getBeatStructure(beat);
+                double[] times = noteTimes.get(beatStructure);
+                if (times == null) {
+                    times = getNoteTimes(beatStructure, settings);
+                    noteTimes.put(beatStructure, times);
+                }
+
+                if (size + times.length >= offsets.length) {
+                    capacity = Math.max(offsets.length * 2, size + times.length + 1);
+                    offsets = Arrays.copyOf(offsets, capacity);
+                    positions = Arrays.copyOf(positions, capacity);
+                }
+                for (int note = 1; note <= times.length; note++) {
+                    offsets[size] = Math.round((beats + times[note-1]) * nanosPerBeat);
+                    positions[size] = pack(bar, beat, note);
+                    size++;
+                }
+                beats++;
+            }
+        }
+        offsets[size] = Math.round(beats * nanosPerBeat);
+        return new CompiledTimeline(version, settings, offsets, positions, size);
+    }
+
+    private static double[] getNoteTimes(BeatStructure beatStructure, PartitionSettings settings) {
+        List<Fraction> fractions = beatStructure.getFractionEvolution(settings);
+        if (fractions.size() > 1 << NOTE_BITS) {
+            throw new IllegalArgumentException("Too many notes in a beat for a timeline : " + fractions.size());
+        }
+        double[] times = new double[fractions.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = fractions.get(i).doubleValue();
+        }
+        return times;
+    }
+
+    private static int pack(int bar, int beat, int note) {
+        return (bar - 1) << (BEAT_BITS + NOTE_BITS) | (beat - 1) << NOTE_BITS | (note - 1);
+    }
+
+    /**
+     * Get the number of notes
+     * @return the number of notes in the timeline
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the time of a note
+     * @param index the index of the note, from 0 to size (size for the end of the partition)
+     * @return the offset of the note from the start of the partition, in nanoseconds
+     */
+    public long getOffset(int index) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Note " + index + " not in the timeline");
+        }
+        return scale(offsets[index]);
+    }
+
+    /**
+     * Get the duration of the partition
+     * @return the duration in nanoseconds
+     */
+    public long getDuration() {
+        return scale(offsets[size]);
+    }
+
+    private long scale(long offset) {
+        return tempo == compiledTempo ? offset : Math.round(offset * (double) compiledTempo / tempo);
+    }
+
+    /**
+     * Get the tempo used to compute the offsets
+     * @return the tempo
+     */
+    public float getTempo() {
+        return tempo;
+    }
+
+    /**
+     * Get the bar of a note
+     * @param index the index of the note, from 0 to size - 1
+     * @return the bar number
+     */
+    public int getBarNumber(int index) {
+        return (getPosition(index) >>> (BEAT_BITS + NOTE_BITS)) + 1;
+    }
+
+    /**
+     * Get the beat of a note
+     * @param index the index of the note, from 0 to size - 1
+     * @return the beat number
+     */
+    public int getBeatNumber(int index) {
+        return ((getPosition(index) >>> NOTE_BITS) & BEAT_MASK) + 1;
+    }
+
+    /**
+     * Get the number of a note in its beat
+     * @param index the index of the note, from 0 to size - 1
+     * @return the note number
+     */
+    public int getNoteNumber(int index) {
+        return (getPosition(index) & NOTE_MASK) + 1;
+    }
+
+    /**
+     * Get the index of a note, by binary search
+     * @param barNumber the bar of the note
+     * @param beatNumber the beat of the note
+     * @param noteNumber the number of the note in its beat
+     * @return the index of the note, or of the next note if the note is not in the timeline (size after the last note)
+     */
+    public int getIndex(int barNumber, int beatNumber, int noteNumber) {
+        if (barNumber < 1 || beatNumber < 1 || noteNumber < 1) {
+            throw new IllegalArgumentException("Incorrect position : " + barNumber + "." + beatNumber + "." + noteNumber);
+        }
+        if (barNumber > MAX_BARS) {
+            return size;
+        }
+        int position = pack(barNumber, Math.min(beatNumber, 1 << BEAT_BITS), Math.min(noteNumber, 1 << NOTE_BITS));
+        int index = Arrays.binarySearch(positions, 0, size, position);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Get the index of the note played at a time, by binary search
+     * @param offset the time from the start of the partition, in nanoseconds
+     * @return the index of the last note starting before or at the time (size after the end of the partition)
+     */
+    public int getIndexAt(long offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Incorrect time : " + offset);
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (scale(offsets[middle]) <= offset) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private int getPosition(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Note " + index + " not in the timeline");
+        }
+        return positions[index];
+    }
+}
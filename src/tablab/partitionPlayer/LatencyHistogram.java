@@ -0,0 +1,116 @@
+package tablab.partitionPlayer;
+
+/**
+ * LatencyHistogram counts durations (in nanoseconds) in buckets of logarithmic size, as a HDR histogram :
+ * each power of two is divided in 16 buckets, the values are kept with a precision of 1/16 (about 6%).
+ * The memory and the cost of a record do not depend on the number of recorded values.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_COUNT;
+
+    private final long[] counts;
+    private long count;
+    private long total;
+    private long max;
+
+    LatencyHistogram() {
+        this.counts = new long[BUCKETS];
+    }
+
+    private LatencyHistogram(LatencyHistogram histogram) {
+        this.counts = histogram.counts.clone();
+        this.count = histogram.count;
+        this.total = histogram.total;
+        this.max = histogram.max;
+    }
+
+    /**
+     * Record a value
+     * @param value the duration in nanoseconds, the negative values are recorded as 0
+     */
+    synchronized void record(long value) {
+        value = Math.max(value, 0);
+        counts[getIndex(value)]++;
+        count++;
+        total += value;
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Get a copy of the histogram
+     * @return the copy
+     */
+    synchronized LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    /**
+     * Get the number of recorded values
+     * @return the number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the highest recorded value
+     * @return the maximum, in nanoseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Get the mean of the recorded values
+     * @return the mean, in nanoseconds, 0 if no value
+     */
+    public double getMean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * Get the value below which a percentage of the values are
+     * @param percentile the percentage, between 0 and 100
+     * @return the highest value of the bucket of the percentile (at most the maximum), in nanoseconds, 0 if no value
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * count));
+        long cumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulated += counts[i];
+            if (cumulated >= rank) {
+                return Math.min(getHighestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " mean=" + (long) getMean() + "ns p50=" + getValueAtPercentile(50)
+                + "ns p99=" + getValueAtPercentile(99) + "ns max=" + max + "ns";
+    }
+
+    private static int getIndex(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) & (SUB_COUNT - 1));
+    }
+
+    private static long getHighestValue(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long lowest = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
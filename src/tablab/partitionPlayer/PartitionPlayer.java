@@ -17,6 +17,55 @@ public interface PartitionPlayer {
      */
     void playPartition(MusicPartition partition);
 
+    /** Play the given partition in real time, from a note.
+     * If the partition is already playing, the player restart the partition from the note.
+     *
+     * @param partition the partition to play
+     * @param barNumber the bar of the first note
+     * @param beatNumber the beat of the first note
+     * @param noteNumber the number of the first note in its beat (the next note is played if the beat has less notes)
+     */
+    void playFrom(MusicPartition partition, int barNumber, int beatNumber, int noteNumber);
+
+    /** Go to a note of the playing partition, without stopping the player.
+     * If the player is paused, the note is played when the player is resumed.
+     * Nothing is done if the player is not playing.
+     *
+     * @param barNumber the bar of the note
+     * @param beatNumber the beat of the note
+     * @param noteNumber the number of the note in its beat (the next note is played if the beat has less notes)
+     */
+    void seek(int barNumber, int beatNumber, int noteNumber);
+
+    /** Go to a time of the playing partition, without stopping the player : the player plays the note played at this time.
+     * If the player is paused, the note is played when the player is resumed.
+     * Nothing is done if the player is not playing.
+     *
+     * @param millis the time from the start of the partition, in milliseconds
+     */
+    void seek(long millis);
+
+    /**
+     * Return the current tempo of the player.
+     * @return the tempo, 0 if no partition was played
+     */
+    float getTempo();
+
+    /** Change the tempo of the playing partition, from the next note.
+     * The tempo is the tempo of the partition at the start of each playing.
+     *
+     * @param tempo the new tempo
+     */
+    void setTempo(float tempo);
+
+    /** Change progressively the tempo of the playing partition, from the current tempo to a tempo.
+     * The tempo is changed at each note, linearly during the given time.
+     *
+     * @param targetTempo the tempo at the end of the change
+     * @param durationMillis the duration of the change, in milliseconds
+     */
+    void rampTempo(float targetTempo, long durationMillis);
+
     /** Stop to play the partition.
      */
     void stopPlaying();
@@ -0,0 +1,105 @@
+package tablab.partitionPlayer;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * PlayerJfrEvents writes the played notes in the Java Flight Recorder, as "tablab.PlayerNote" events with the position
+ * of the note, its lateness and the time spent in the callbacks.
+ * The event is defined with jdk.jfr.EventFactory by reflection : the player still runs on a Java version without
+ * Flight Recorder, where the events are not available.
+ */
+final class PlayerJfrEvents {
+
+    private static final Object factory;
+    private static final Method newEvent;
+    private static final Method set;
+    private static final Method commit;
+
+    static {
+        Object eventFactory = null;
+        Method newEventMethod = null;
+        Method setMethod = null;
+        Method commitMethod = null;
+        try {
+            Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+            Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+            Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+            Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+            List<Object> eventAnnotations = Arrays.asList(
+                    annotation.newInstance(annotationClass("jdk.jfr.Name"), "tablab.PlayerNote"),
+                    annotation.newInstance(annotationClass("jdk.jfr.Label"), "Player Note"),
+                    annotation.newInstance(annotationClass("jdk.jfr.Category"), new String[]{"TabLab"}));
+            List<Object> timespan = Collections.singletonList(annotation.newInstance(annotationClass("jdk.jfr.Timespan"), "NANOSECONDS"));
+            List<Object> fields = new ArrayList<>();
+            fields.add(field.newInstance(int.class, "bar", Collections.emptyList()));
+            fields.add(field.newInstance(int.class, "beat", Collections.emptyList()));
+            fields.add(field.newInstance(int.class, "note", Collections.emptyList()));
+            fields.add(field.newInstance(long.class, "lateness", timespan));
+            fields.add(field.newInstance(long.class, "callbackTime", timespan));
+
+            eventFactory = eventFactoryClass.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+            newEventMethod = eventFactoryClass.getMethod("newEvent");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            setMethod = event.getMethod("set", int.class, Object.class);
+            commitMethod = event.getMethod("commit");
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            // No Flight Recorder
+            eventFactory = null;
+        }
+        factory = eventFactory;
+        newEvent = newEventMethod;
+        set = setMethod;
+        commit = commitMethod;
+    }
+
+    private PlayerJfrEvents() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Annotation> annotationClass(String name) throws ClassNotFoundException {
+        return (Class<? extends Annotation>) Class.forName(name);
+    }
+
+    /**
+     * Check if the events can be written
+     * @return true if the Flight Recorder is available
+     */
+    static boolean isAvailable() {
+        return factory != null;
+    }
+
+    /**
+     * Write the event of a note
+     * @param barNumber the bar of the note
+     * @param beatNumber the beat of the note
+     * @param noteNumber the number of the note in the beat
+     * @param lateness the lateness of the note, in nanoseconds
+     * @param callbackTime the time spent in the callbacks, in nanoseconds
+     */
+    static void commit(int barNumber, int beatNumber, int noteNumber, long lateness, long callbackTime) {
+        if (factory == null) {
+            return;
+        }
+        try {
+            Object event = newEvent.invoke(factory);
+            set.invoke(event, 0, barNumber);
+            set.invoke(event, 1, beatNumber);
+            set.invoke(event, 2, noteNumber);
+            set.invoke(event, 3, lateness);
+            set.invoke(event, 4, callbackTime);
+            commit.invoke(event);
+        }
+        catch (ReflectiveOperationException e) {
+            // The event is lost, the playing continues
+        }
+    }
+}
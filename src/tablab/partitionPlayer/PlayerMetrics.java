@@ -0,0 +1,67 @@
+package tablab.partitionPlayer;
+
+/**
+ * PlayerMetrics is a snapshot of the timing measures of a player, since its creation or the last reset :
+ *   - the lateness of the notes : the time between the expected time of a note and the call of the callbacks
+ *   - the time spent in the callbacks for each note
+ *   - the number of wake ups of the playing thread (end of a sleep or a park)
+ */
+public final class PlayerMetrics {
+
+    private final LatencyHistogram lateness;
+    private final LatencyHistogram callbackTime;
+    private final long wakeups;
+    private final long lastLateness;
+
+    PlayerMetrics(LatencyHistogram lateness, LatencyHistogram callbackTime, long wakeups, long lastLateness) {
+        this.lateness = lateness;
+        this.callbackTime = callbackTime;
+        this.wakeups = wakeups;
+        this.lastLateness = lastLateness;
+    }
+
+    /**
+     * Get the lateness of the notes
+     * @return the histogram of the lateness, in nanoseconds
+     */
+    public LatencyHistogram getLateness() {
+        return lateness;
+    }
+
+    /**
+     * Get the time spent in the callbacks for each note
+     * @return the histogram of the durations, in nanoseconds
+     */
+    public LatencyHistogram getCallbackTime() {
+        return callbackTime;
+    }
+
+    /**
+     * Get the number of notes played
+     * @return the number of notes
+     */
+    public long getNotes() {
+        return lateness.getCount();
+    }
+
+    /**
+     * Get the number of wake ups of the playing thread
+     * @return the number of wake ups
+     */
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    /**
+     * Get the lateness of the last note : the drift of the player at the current position
+     * @return the lateness, in nanoseconds
+     */
+    public long getLastLateness() {
+        return lastLateness;
+    }
+
+    @Override
+    public String toString() {
+        return "lateness [" + lateness + "] callbacks [" + callbackTime + "] wakeups=" + wakeups + " last=" + lastLateness + "ns";
+    }
+}
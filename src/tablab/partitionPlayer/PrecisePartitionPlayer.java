@@ -0,0 +1,88 @@
+package tablab.partitionPlayer;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A precise implementation of partitionPlayer and AbstractPartitionPlayer, for the fast tempos and the short notes.
+ * The time is measured with System.nanoTime : the thread is parked until a short time before the next note,
+ * then waits the end of this time actively (spin). The spin time is the precision given to the parking of the thread,
+ * the thread uses the processor only during this time.
+ */
+public class PrecisePartitionPlayer extends AbstractPartitionPlayer {
+
+    // The default active wait before each note, in nanoseconds
+    public static final long DEFAULT_SPIN_NANOS = 200000;
+
+    private final Object lock = new Object();
+    private volatile long spinNanos;
+
+    public PrecisePartitionPlayer() {
+        this(DEFAULT_SPIN_NANOS);
+    }
+
+    /**
+     * Create a player
+     * @param spinNanos the active wait before each note, in nanoseconds
+     */
+    public PrecisePartitionPlayer(long spinNanos) {
+        setSpinNanos(spinNanos);
+    }
+
+    /**
+     * Get the active wait before each note
+     * @return the spin time, in nanoseconds
+     */
+    public long getSpinNanos() {
+        return spinNanos;
+    }
+
+    /**
+     * Set the active wait before each note : a longer time gives a better precision with more processor usage
+     * @param spinNanos the spin time, in nanoseconds
+     */
+    public void setSpinNanos(long spinNanos) {
+        if (spinNanos < 0) {
+            throw new IllegalArgumentException("Incorrect spin time : " + spinNanos);
+        }
+        this.spinNanos = spinNanos;
+    }
+
+    @Override
+    void sleep(long millis) throws InterruptedException {
+        waitUntil(System.nanoTime() + millis * 1000000);
+    }
+
+    @Override
+    void waitUntil(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        while (remaining > spinNanos) {
+            LockSupport.parkNanos(this, remaining - spinNanos);
+            wokenUp();
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        while (deadline - System.nanoTime() > 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @Override
+    void lockPause() throws InterruptedException {
+        synchronized (lock) {
+            while (isPaused() && isPlaying()) {
+                lock.wait();
+            }
+        }
+    }
+
+    @Override
+    void notifyPause() {
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package tablab.partitionPlayer;
+
+import tablab.MusicPartition;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An implementation of partitionPlayer without its own thread, to play many partitions at the same time.
+ *
+ * Each note is a task of a scheduler shared by the players : the task calls the callbacks then schedules the next note.
+ * Between two notes, a player uses no thread, so a few threads of the scheduler play all the partitions.
+ * By default, the players share a scheduler with a thread for each processor.
+ *
+ * The callbacks of the notes are called by the threads of the scheduler : a slow callback delays the other players
+ * sharing a thread, and must not wait (see AsyncPlayerCallback).
+ */
+public class ScheduledPartitionPlayer implements PartitionPlayer {
+
+    private final ScheduledExecutorService scheduler;
+    private final List<PlayerCallback> callbacks = new CopyOnWriteArrayList<>();
+
+    // The playing of the current partition, null if the player is not started
+    private Session session;
+
+    // State of the player
+    private volatile boolean isStarted;
+    private volatile boolean isPaused;
+
+    // The tempo of the playing, null if no partition was played
+    private volatile TempoRamp tempoRamp;
+
+    // Timing measures
+    private volatile LatencyHistogram lateness = new LatencyHistogram();
+    private volatile LatencyHistogram callbackTime = new LatencyHistogram();
+    private volatile long wakeups = 0;
+    private volatile long lastLateness = 0;
+
+    /**
+     * Create a player using the scheduler shared by default
+     */
+    public ScheduledPartitionPlayer() {
+        this(DefaultScheduler.SCHEDULER);
+    }
+
+    /**
+     * Create a player
+     * @param scheduler the scheduler playing the notes, which can be shared with other players
+     */
+    public ScheduledPartitionPlayer(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Get the scheduler shared by default by the players
+     * @return the scheduler, with a daemon thread for each processor
+     */
+    public static ScheduledExecutorService getDefaultScheduler() {
+        return DefaultScheduler.SCHEDULER;
+    }
+
+    public void playPartition(MusicPartition partition) {
+        play(partition, TimelinePosition.START);
+    }
+
+    public void playFrom(MusicPartition partition, int barNumber, int beatNumber, int noteNumber) {
+        play(partition, TimelinePosition.ofNote(partition, barNumber, beatNumber, noteNumber));
+    }
+
+    private void play(MusicPartition partition, TimelinePosition position) {
+        if (isStarted) {
+            stopPlaying();
+        }
+        // The time of all the notes in the partition, compiled once for each version of the partition
+        // Compiled by the calling thread : a large partition does not block a thread of the scheduler
+        CompiledTimeline timeline = CompiledTimeline.compile(partition);
+        synchronized (this) {
+            isStarted = true;
+            isPaused = false;
+            tempoRamp = TempoRamp.constant(partition.getSettings().tempo);
+            session = new Session(partition, timeline, position);
+            session.schedule();
+        }
+    }
+
+    public synchronized void seek(int barNumber, int beatNumber, int noteNumber) {
+        if (session != null) {
+            session.seek(TimelinePosition.ofNote(session.partition, barNumber, beatNumber, noteNumber));
+        }
+    }
+
+    public synchronized void seek(long millis) {
+        if (session != null) {
+            session.seek(TimelinePosition.ofTime(millis));
+        }
+    }
+
+    public void stopPlaying() {
+        boolean stopped;
+        synchronized (this) {
+            stopped = session != null;
+            if (stopped) {
+                session.cancel();
+                session = null;
+            }
+            isStarted = false;
+        }
+
+        // Call the callbacks
+        for (PlayerCallback callback : callbacks) {
+            callback.onStop();
+        }
+        if (stopped) {
+            for (PlayerCallback callback : callbacks) {
+                callback.onFinish();
+            }
+        }
+    }
+
+    public void pausePlaying() {
+        synchronized (this) {
+            if (!isPaused && session != null) {
+                isPaused = true;
+                session.pause();
+            }
+        }
+
+        // Call the callbacks
+        for (PlayerCallback callback : callbacks) {
+            callback.onPause();
+        }
+    }
+
+    public void resumePlaying() {
+        boolean resumed;
+        synchronized (this) {
+            resumed = isPaused && session != null;
+            isPaused = false;
+            if (resumed) {
+                session.resume();
+            }
+        }
+
+        // Call the callbacks
+        if (resumed) {
+            for (PlayerCallback callback : callbacks) {
+                callback.onResume();
+            }
+        }
+    }
+
+    public boolean isPlaying() {
+        return isStarted;
+    }
+
+    public boolean isPaused() {
+        return isPaused;
+    }
+
+    public float getTempo() {
+        TempoRamp ramp = tempoRamp;
+        return ramp == null ? 0 : ramp.getTempo(System.nanoTime());
+    }
+
+    public void setTempo(float tempo) {
+        tempoRamp = TempoRamp.constant(tempo);
+    }
+
+    public void rampTempo(float targetTempo, long durationMillis) {
+        TempoRamp ramp = tempoRamp;
+        tempoRamp = (ramp == null ? TempoRamp.constant(targetTempo) : ramp).rampTo(targetTempo, durationMillis);
+    }
+
+    /**
+     * Get the timing measures of the player, since its creation or the last reset
+     * The wake ups are the runs of the tasks of the player
+     * @return a snapshot of the measures
+     */
+    public PlayerMetrics getMetrics() {
+        return new PlayerMetrics(lateness.copy(), callbackTime.copy(), wakeups, lastLateness);
+    }
+
+    /**
+     * Reset the timing measures
+     */
+    public void resetMetrics() {
+        lateness = new LatencyHistogram();
+        callbackTime = new LatencyHistogram();
+        wakeups = 0;
+        lastLateness = 0;
+    }
+
+    public void addPlayerCallback(PlayerCallback callback) {
+        callbacks.add(callback);
+    }
+
+    public void removePlayerCallback(PlayerCallback callback) {
+        callbacks.remove(callback);
+    }
+
+    /**
+     * The playing of a partition, playing its next note in a task
+     * The fields are guarded by the player.
+     */
+    private class Session {
+
+        private final MusicPartition partition;
+        private final CompiledTimeline timeline;
+
+        // The next note to play, and its expected time (in the time of System.nanoTime())
+        private int index = 0;
+        private long noteTime;
+        private long pauseTime;
+
+        // The scheduled task, null if not scheduled
+        private ScheduledFuture<?> future;
+
+        // The number of the last scheduled task : a task already taken by the scheduler but cancelled or replaced does nothing
+        private int generation = 0;
+
+        // The position of the first note, found in the timeline at the start
+        private TimelinePosition startPosition;
+        private boolean started = false;
+
+        // True while the task calls the callbacks : the task schedules the next note itself
+        private boolean running = false;
+
+        // True if the next note is changed by a seek while the task calls the callbacks
+        private boolean seeked = false;
+
+        Session(MusicPartition partition, CompiledTimeline timeline, TimelinePosition startPosition) {
+            this.partition = partition;
+            this.timeline = timeline;
+            this.startPosition = startPosition;
+        }
+
+        void cancel() {
+            generation++;
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+        }
+
+        void pause() {
+            cancel();
+            pauseTime = System.nanoTime();
+        }
+
+        void resume() {
+            noteTime += System.nanoTime() - pauseTime;
+            if (!running) {
+                schedule();
+            }
+        }
+
+        /**
+         * Go to a position : the note of the position is the next note, played now (or at the resume)
+         * @param position the position
+         */
+        void seek(TimelinePosition position) {
+            // Not started yet : the position is found at the start
+            if (!started) {
+                startPosition = position;
+                return;
+            }
+            index = position.getIndex(timeline);
+            noteTime = isPaused ? pauseTime : System.nanoTime();
+            seeked = true;
+            if (!isPaused && !running) {
+                cancel();
+                schedule();
+            }
+        }
+
+        /**
+         * Schedule the next note at its time, or the start of the partition
+         */
+        private void schedule() {
+            long delay = started ? noteTime - System.nanoTime() : 0;
+            future = scheduler.schedule(new NoteTask(++generation), delay, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Play the next note, then schedule the next one
+         * @param taskGeneration the number of the task
+         */
+        private void playNote(int taskGeneration) {
+            wakeups++;
+            int i;
+            boolean first;
+            synchronized (ScheduledPartitionPlayer.this) {
+                if (session != this || isPaused || taskGeneration != generation) {
+                    return;
+                }
+                future = null;
+                running = true;
+                seeked = false;
+                first = !started;
+                if (first) {
+                    started = true;
+                    index = startPosition.getIndex(timeline);
+                    noteTime = System.nanoTime();
+                }
+                i = index;
+            }
+
+            if (first) {
+                for (PlayerCallback callback : callbacks) {
+                    callback.onStart();
+                }
+                // Stopped, paused or seeked during the callbacks : no other task is scheduled while the task runs,
+                // so a paused session is scheduled again by the resume, and a seeked session plays the note of the seek
+                synchronized (ScheduledPartitionPlayer.this) {
+                    if (session != this || isPaused) {
+                        running = false;
+                        return;
+                    }
+                    seeked = false;
+                    i = index;
+                }
+            }
+
+            // End of the partition
+            if (i == timeline.size()) {
+                synchronized (ScheduledPartitionPlayer.this) {
+                    running = false;
+                    if (session != this) {
+                        return;
+                    }
+                    session = null;
+                    isStarted = false;
+                }
+                for (PlayerCallback callback : callbacks) {
+                    callback.onFinish();
+                }
+                return;
+            }
+
+            // Call the callback with the current position of the partition
+            int barNumber = timeline.getBarNumber(i);
+            int beatNumber = timeline.getBeatNumber(i);
+            int noteNumber = timeline.getNoteNumber(i);
+            long expectedTime;
+            synchronized (ScheduledPartitionPlayer.this) {
+                expectedTime = noteTime;
+            }
+            long callbackStart = System.nanoTime();
+            try {
+                for (PlayerCallback callback : callbacks) {
+                    callback.onNextNote(barNumber, beatNumber, noteNumber);
+                }
+            }
+            // A callback is interrupted : stop playing
+            catch (InterruptedException e) {
+                synchronized (ScheduledPartitionPlayer.this) {
+                    running = false;
+                    if (session != this) {
+                        return;
+                    }
+                }
+                stopPlaying();
+                return;
+            }
+            long noteCallbackTime = System.nanoTime() - callbackStart;
+            lateness.record(callbackStart - expectedTime);
+            callbackTime.record(noteCallbackTime);
+            lastLateness = callbackStart - expectedTime;
+
+            // Wait the expected time of the next note at the current tempo, without thread
+            synchronized (ScheduledPartitionPlayer.this) {
+                running = false;
+                if (session == this) {
+                    if (!seeked) {
+                        index = i + 1;
+                        noteTime += tempoRamp.getDelay(timeline, i);
+                    }
+                    if (!isPaused) {
+                        schedule();
+                    }
+                }
+            }
+        }
+
+        /**
+         * The task of a note
+         */
+        private final class NoteTask implements Runnable {
+
+            private final int taskGeneration;
+
+            NoteTask(int taskGeneration) {
+                this.taskGeneration = taskGeneration;
+            }
+
+            @Override
+            public void run() {
+                playNote(taskGeneration);
+            }
+        }
+    }
+
+    /**
+     * The scheduler shared by default, created at its first use
+     */
+    private static final class DefaultScheduler {
+
+        static final ScheduledExecutorService SCHEDULER = createScheduler();
+
+        private static ScheduledExecutorService createScheduler() {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+                    Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PartitionPlayer-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package tablab.partitionPlayer;
+
+/**
+ * The tempo of a player : a constant tempo, or a linear change of the tempo during a time.
+ * A TempoRamp is immutable : a change of the tempo replaces the ramp of the player.
+ */
+final class TempoRamp {
+
+    private final float startTempo;
+    private final float targetTempo;
+
+    // The start and the duration of the change, in the time of System.nanoTime()
+    private final long startTime;
+    private final long duration;
+
+    private TempoRamp(float startTempo, float targetTempo, long startTime, long duration) {
+        this.startTempo = startTempo;
+        this.targetTempo = targetTempo;
+        this.startTime = startTime;
+        this.duration = duration;
+    }
+
+    /**
+     * Get a constant tempo
+     * @param tempo the tempo
+     * @return the tempo ramp
+     */
+    static TempoRamp constant(float tempo) {
+        checkTempo(tempo);
+        return new TempoRamp(tempo, tempo, 0, 0);
+    }
+
+    /**
+     * Get a change of the tempo from the current tempo
+     * @param targetTempo the tempo at the end of the change
+     * @param durationMillis the duration of the change, in milliseconds
+     * @return the tempo ramp
+     */
+    TempoRamp rampTo(float targetTempo, long durationMillis) {
+        checkTempo(targetTempo);
+        if (durationMillis < 0) {
+            throw new IllegalArgumentException("Incorrect duration : " + durationMillis);
+        }
+        long now = System.nanoTime();
+        return new TempoRamp(getTempo(now), targetTempo, now, durationMillis * 1000000);
+    }
+
+    private static void checkTempo(float tempo) {
+        if (!(tempo > 0) || Float.isInfinite(tempo)) {
+            throw new IllegalArgumentException("Incorrect tempo : " + tempo);
+        }
+    }
+
+    /**
+     * Get the tempo at a time
+     * @param time the time, in the time of System.nanoTime()
+     * @return the tempo
+     */
+    float getTempo(long time) {
+        long elapsed = time - startTime;
+        if (elapsed >= duration) {
+            return targetTempo;
+        }
+        if (elapsed <= 0) {
+            return startTempo;
+        }
+        return startTempo + (targetTempo - startTempo) * ((float) elapsed / duration);
+    }
+
+    /**
+     * Get the time between two notes at the current tempo
+     * @param timeline the timeline of the partition
+     * @param index the index of the first note, from 0 to size - 1
+     * @return the time from the note to the next note, in nanoseconds
+     */
+    long getDelay(CompiledTimeline timeline, int index) {
+        long delay = timeline.getOffset(index + 1) - timeline.getOffset(index);
+        float tempo = getTempo(System.nanoTime());
+        if (tempo == timeline.getTempo()) {
+            return delay;
+        }
+        return Math.round(delay * (double) timeline.getTempo() / tempo);
+    }
+}
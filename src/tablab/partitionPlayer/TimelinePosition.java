@@ -0,0 +1,67 @@
+package tablab.partitionPlayer;
+
+import tablab.MusicPartition;
+
+/**
+ * A position to play in a partition : a note (bar, beat and note) or a time from the start of the partition.
+ * The position is found in the timeline when the timeline is compiled, by the playing thread.
+ */
+final class TimelinePosition {
+
+    // The start of a partition
+    static final TimelinePosition START = new TimelinePosition(1, 1, 1, -1);
+
+    private final int barNumber;
+    private final int beatNumber;
+    private final int noteNumber;
+
+    // The time in nanoseconds, -1 for a position given by a note
+    private final long offset;
+
+    private TimelinePosition(int barNumber, int beatNumber, int noteNumber, long offset) {
+        this.barNumber = barNumber;
+        this.beatNumber = beatNumber;
+        this.noteNumber = noteNumber;
+        this.offset = offset;
+    }
+
+    /**
+     * Get the position of a note
+     * @param partition the partition
+     * @param barNumber the bar of the note
+     * @param beatNumber the beat of the note
+     * @param noteNumber the number of the note in its beat
+     * @return the position
+     */
+    static TimelinePosition ofNote(MusicPartition partition, int barNumber, int beatNumber, int noteNumber) {
+        if (barNumber < 1 || barNumber > partition.getMusicBarNumber()
+                || beatNumber < 1 || beatNumber > partition.getSettings().notesNumber || noteNumber < 1) {
+            throw new IllegalArgumentException("Incorrect position : " + barNumber + "." + beatNumber + "." + noteNumber);
+        }
+        return new TimelinePosition(barNumber, beatNumber, noteNumber, -1);
+    }
+
+    /**
+     * Get the position of a time
+     * @param millis the time from the start of the partition, in milliseconds
+     * @return the position
+     */
+    static TimelinePosition ofTime(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Incorrect time : " + millis);
+        }
+        return new TimelinePosition(0, 0, 0, millis * 1000000);
+    }
+
+    /**
+     * Get the index of the position in a timeline
+     * @param timeline the timeline of the partition
+     * @return the index of the note to play first
+     */
+    int getIndex(CompiledTimeline timeline) {
+        if (offset >= 0) {
+            return timeline.getIndexAt(offset);
+        }
+        return timeline.getIndex(barNumber, beatNumber, noteNumber);
+    }
+}
@@ -0,0 +1,106 @@
+package tablab.partitionPlayer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An implementation of partitionPlayer and AbstractPartitionPlayer playing each partition in a virtual thread,
+ * to play many partitions at the same time : a waiting virtual thread does not keep a thread of the system.
+ *
+ * The player waits with LockSupport.parkNanos and pauses with a condition of a ReentrantLock, which do not pin the
+ * virtual thread on its carrier thread (unlike wait and notify on a monitor).
+ * The virtual threads are created by reflection : with a Java version without virtual threads, the player uses
+ * daemon platform threads. Another thread factory can be set with setThreadFactory.
+ */
+public class VirtualPartitionPlayer extends AbstractPartitionPlayer {
+
+    // The factory of virtual threads, null if the virtual threads are not available
+    private static final ThreadFactory VIRTUAL_THREAD_FACTORY = createVirtualThreadFactory();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition resumed = lock.newCondition();
+
+    public VirtualPartitionPlayer() {
+        if (VIRTUAL_THREAD_FACTORY != null) {
+            setThreadFactory(VIRTUAL_THREAD_FACTORY);
+        }
+        else {
+            setThreadFactory(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Check if the players use virtual threads
+     * @return true if the virtual threads are available in this Java version
+     */
+    public static boolean isVirtualThreads() {
+        return VIRTUAL_THREAD_FACTORY != null;
+    }
+
+    /**
+     * Create a factory of virtual threads : Thread.ofVirtual().factory()
+     * @return the factory, null if the virtual threads are not available
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Override
+    void sleep(long millis) throws InterruptedException {
+        waitUntil(System.nanoTime() + millis * 1000000);
+    }
+
+    @Override
+    void waitUntil(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        while (remaining > 0) {
+            LockSupport.parkNanos(this, remaining);
+            wokenUp();
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    @Override
+    void lockPause() throws InterruptedException {
+        lock.lock();
+        try {
+            while (isPaused() && isPlaying()) {
+                resumed.await();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void notifyPause() {
+        lock.lock();
+        try {
+            resumed.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}